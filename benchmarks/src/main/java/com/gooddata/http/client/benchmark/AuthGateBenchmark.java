@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Contention of the request admission used by GoodData HTTP client before 0.8.4 (read lock per request,
+ * write lock held for the whole authentication) compared with the auth epoch (volatile read per request,
+ * authentication does not block requests). A background thread simulates authentication taking
+ * {@link #authMillis} every {@link #authPeriodMillis}, the request itself is simulated by consuming CPU.
+ * Run with various thread counts, e.g. <code>java -jar target/benchmarks.jar AuthGateBenchmark -t 256</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthGateBenchmark {
+
+    @Param({"10"})
+    public long authMillis;
+
+    @Param({"100"})
+    public long authPeriodMillis;
+
+    @Param({"100"})
+    public long requestTokens;
+
+    private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    private volatile int authEpoch;
+
+    private ScheduledExecutorService authenticator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        authenticator = Executors.newSingleThreadScheduledExecutor();
+        authenticator.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                final Lock writeLock = rwLock.writeLock();
+                writeLock.lock();
+                try {
+                    sleep(authMillis);
+                } finally {
+                    writeLock.unlock();
+                }
+                sleep(authMillis);
+                authEpoch++;
+            }
+        }, authPeriodMillis, authPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        authenticator.shutdownNow();
+    }
+
+    @Benchmark
+    public void readWriteLock() {
+        final Lock readLock = rwLock.readLock();
+        readLock.lock();
+        try {
+            Blackhole.consumeCPU(requestTokens);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Benchmark
+    public int authEpoch() {
+        final int epoch = authEpoch;
+        Blackhole.consumeCPU(requestTokens);
+        return epoch;
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client.benchmark;
+
+import com.gooddata.http.client.GoodDataChallengeType;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of challenge detection performed on every response. Run with the GC profiler,
+ * <code>java -jar target/benchmarks.jar ChallengeBenchmark -prof gc</code>, and check that
+ * <code>gc.alloc.rate.norm</code> is 0 B/op for all benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChallengeBenchmark {
+
+    private HttpResponse ok;
+    private HttpResponse ttChallenge;
+    private HttpResponse otherChallenge;
+
+    @Setup
+    public void setUp() {
+        ok = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        ok.addHeader("Content-Type", "application/json");
+        ttChallenge = new BasicHttpResponse(HttpVersion.HTTP_1_1, 401, "Unauthorized");
+        ttChallenge.addHeader("WWW-Authenticate", "GoodData realm=\"GoodData API\" cookie=GDCAuthTT");
+        otherChallenge = new BasicHttpResponse(HttpVersion.HTTP_1_1, 401, "Unauthorized");
+        otherChallenge.addHeader("WWW-Authenticate", "Basic realm=\"other\"");
+    }
+
+    @Benchmark
+    public GoodDataChallengeType ok() {
+        return GoodDataChallengeType.identify(ok);
+    }
+
+    @Benchmark
+    public GoodDataChallengeType ttChallenge() {
+        return GoodDataChallengeType.identify(ttChallenge);
+    }
+
+    @Benchmark
+    public GoodDataChallengeType otherChallenge() {
+        return GoodDataChallengeType.identify(otherChallenge);
+    }
+}
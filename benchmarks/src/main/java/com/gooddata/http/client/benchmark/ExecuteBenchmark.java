@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client.benchmark;
+
+import com.gooddata.http.client.GoodDataHttpClient;
+import com.gooddata.http.client.LoginSSTRetrievalStrategy;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput and latency of {@link GoodDataHttpClient#execute(HttpHost, org.apache.http.HttpRequest)} against
+ * the in-process {@link StubServer}, compared with the plain wrapped HTTP client. Thread count is set from
+ * the command line, e.g. <code>java -jar target/benchmarks.jar ExecuteBenchmark -t 64</code>.
+ * <ul>
+ *     <li><code>STEADY</code> - tokens never expire</li>
+ *     <li><code>TT_EXPIRY</code> - TT expires every {@link #expiryPeriodMillis}, causing TT challenge storms</li>
+ *     <li><code>SST_EXPIRY</code> - SST and TT expire every {@link #expiryPeriodMillis}, causing login</li>
+ * </ul>
+ * Raw client requests unauthenticated resource with the same response, so it shows the cost of the transport only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExecuteBenchmark {
+
+    public enum Client {
+        RAW, GOODDATA
+    }
+
+    public enum Scenario {
+        STEADY, TT_EXPIRY, SST_EXPIRY
+    }
+
+    @Param({"RAW", "GOODDATA"})
+    public Client client;
+
+    @Param({"STEADY", "TT_EXPIRY", "SST_EXPIRY"})
+    public Scenario scenario;
+
+    @Param({"100"})
+    public long expiryPeriodMillis;
+
+    private StubServer server;
+    private HttpHost host;
+    private CloseableHttpClient httpClient;
+    private CloseableHttpClient loginHttpClient;
+    private HttpClient executingClient;
+    private String url;
+    private ScheduledExecutorService expirator;
+    private final AtomicInteger reportedLogins = new AtomicInteger();
+    private final AtomicInteger reportedTtRefreshes = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new StubServer(256);
+        server.start();
+        host = server.getHost();
+
+        httpClient = createHttpClient();
+        if (client == Client.RAW) {
+            executingClient = httpClient;
+            url = StubServer.PUBLIC_URL;
+        } else {
+            loginHttpClient = createHttpClient();
+            executingClient = new GoodDataHttpClient(httpClient,
+                    new LoginSSTRetrievalStrategy(loginHttpClient, host, "user@email.com", "top secret"));
+            url = StubServer.PROJECTS_URL;
+        }
+
+        expirator = Executors.newSingleThreadScheduledExecutor();
+        if (scenario != Scenario.STEADY) {
+            expirator.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    if (scenario == Scenario.TT_EXPIRY) {
+                        server.expireTt();
+                    } else {
+                        server.expireSst();
+                    }
+                }
+            }, expiryPeriodMillis, expiryPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        expirator.shutdownNow();
+        httpClient.close();
+        if (loginHttpClient != null) {
+            loginHttpClient.close();
+        }
+        server.stop();
+    }
+
+    @Benchmark
+    public int execute(final AuthCounters counters) throws IOException {
+        final HttpGet get = new HttpGet(url);
+        final HttpResponse response = executingClient.execute(host, get);
+        EntityUtils.consume(response.getEntity());
+        return response.getStatusLine().getStatusCode();
+    }
+
+    /**
+     * Logins and TT refreshes served by the stub server during the iteration, reported by JMH next to the results.
+     * Every thread reports the part not yet reported by the others, so the sum over threads is the server total.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class AuthCounters {
+        public long logins;
+        public long ttRefreshes;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            logins = 0;
+            ttRefreshes = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void collect(final ExecuteBenchmark benchmark) {
+            logins = unreported(benchmark.server.getLogins(), benchmark.reportedLogins);
+            ttRefreshes = unreported(benchmark.server.getTtRefreshes(), benchmark.reportedTtRefreshes);
+        }
+
+        private static long unreported(final int current, final AtomicInteger reported) {
+            return current - reported.getAndSet(current);
+        }
+    }
+
+    private static CloseableHttpClient createHttpClient() {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(512);
+        connectionManager.setDefaultMaxPerRoute(512);
+        return HttpClientBuilder.create().setConnectionManager(connectionManager).build();
+    }
+}
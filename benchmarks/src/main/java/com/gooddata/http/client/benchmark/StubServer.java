@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client.benchmark;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stub of GoodData API. Issues SST on login and TT on token request and rejects requests
+ * to <code>/gdc/projects</code> with GoodData challenges when the tokens were expired by {@link #expireTt()}
+ * or {@link #expireSst()}. Resource <code>/public</code> returns the same body without any authentication.
+ * The stub runs on plain HTTP where the secure SST cookie is not sent, so SST validity is tracked
+ * on the server side: TT is issued only when somebody logged in since the last SST expiration.
+ */
+public class StubServer {
+
+    public static final String PROJECTS_URL = "/gdc/projects";
+    public static final String PUBLIC_URL = "/public";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] BODY = "{\"about\":{\"summary\":\"Project Resources\",\"category\":\"Projects\",\"links\":[]}}".getBytes(UTF8);
+    private static final byte[] EMPTY = new byte[0];
+
+    private final AtomicInteger sstGeneration = new AtomicInteger();
+    private final AtomicInteger loggedInGeneration = new AtomicInteger(-1);
+    private final AtomicInteger ttGeneration = new AtomicInteger();
+    private final AtomicInteger logins = new AtomicInteger();
+    private final AtomicInteger ttRefreshes = new AtomicInteger();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    static {
+        // avoid Nagle's algorithm delaying small responses by tens of milliseconds
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    public StubServer(final int threads) throws IOException {
+        this(Executors.newFixedThreadPool(threads));
+    }
+
+    public StubServer(final ExecutorService executor) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        this.executor = executor;
+        server.setExecutor(executor);
+        server.createContext("/gdc/account/login", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                drain(exchange);
+                logins.incrementAndGet();
+                loggedInGeneration.set(sstGeneration.get());
+                exchange.getResponseHeaders().add("Set-Cookie", "GDCAuthSST=sst" + sstGeneration.get() + "; path=/gdc/account; HttpOnly");
+                respond(exchange, 200, BODY);
+            }
+        });
+        server.createContext("/gdc/account/token", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                drain(exchange);
+                if (loggedInGeneration.get() != sstGeneration.get()) {
+                    challenge(exchange, "GDCAuthSST");
+                    return;
+                }
+                ttRefreshes.incrementAndGet();
+                exchange.getResponseHeaders().add("Set-Cookie", "GDCAuthTT=tt" + ttGeneration.get() + "; path=/gdc; HttpOnly");
+                respond(exchange, 200, EMPTY);
+            }
+        });
+        server.createContext(PROJECTS_URL, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                drain(exchange);
+                if (!hasCookie(exchange, "GDCAuthTT=tt" + ttGeneration.get())) {
+                    challenge(exchange, "GDCAuthTT");
+                    return;
+                }
+                respond(exchange, 200, BODY);
+            }
+        });
+        server.createContext(PUBLIC_URL, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                drain(exchange);
+                respond(exchange, 200, BODY);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() throws InterruptedException {
+        server.stop(0);
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    public HttpHost getHost() {
+        return new HttpHost("localhost", server.getAddress().getPort(), "http");
+    }
+
+    /**
+     * Invalidate issued TT, following requests are rejected with TT challenge.
+     */
+    public void expireTt() {
+        ttGeneration.incrementAndGet();
+    }
+
+    /**
+     * Invalidate issued SST and TT, following TT refresh is rejected with SST challenge.
+     */
+    public void expireSst() {
+        sstGeneration.incrementAndGet();
+        ttGeneration.incrementAndGet();
+    }
+
+    public int getLogins() {
+        return logins.get();
+    }
+
+    public int getTtRefreshes() {
+        return ttRefreshes.get();
+    }
+
+    private static boolean hasCookie(final HttpExchange exchange, final String cookie) {
+        final String cookies = exchange.getRequestHeaders().getFirst("Cookie");
+        return cookies != null && cookies.contains(cookie);
+    }
+
+    private static void challenge(final HttpExchange exchange, final String cookie) throws IOException {
+        final Headers headers = exchange.getResponseHeaders();
+        headers.add("WWW-Authenticate", "GoodData realm=\"GoodData API\" cookie=" + cookie);
+        respond(exchange, 401, EMPTY);
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        final OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void drain(final HttpExchange exchange) throws IOException {
+        final InputStream in = exchange.getRequestBody();
+        try {
+            final byte[] buffer = new byte[4096];
+            while (in.read(buffer) != -1) {
+                // discard request body
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
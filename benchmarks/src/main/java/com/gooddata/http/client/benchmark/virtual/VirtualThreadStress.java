@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client.benchmark.virtual;
+
+import com.gooddata.http.client.GoodDataHttpClient;
+import com.gooddata.http.client.LoginSSTRetrievalStrategy;
+import com.gooddata.http.client.benchmark.StubServer;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stress test of {@link GoodDataHttpClient} executed from virtual threads against the in-process {@link StubServer}
+ * with TT expiring every 100ms. Every concurrency level runs the given number of virtual threads, each executing
+ * the given number of requests, and reports the throughput. JFR event <code>jdk.VirtualThreadPinned</code>
+ * is recorded for the whole run and the stress fails when any virtual thread got pinned inside the client.
+ * Requires Java 21, build with the <code>virtual-threads</code> profile and run
+ * <code>java -cp target/benchmarks.jar com.gooddata.http.client.benchmark.virtual.VirtualThreadStress [requests] [levels...]</code>.
+ */
+public class VirtualThreadStress {
+
+    private static final String CLIENT_PACKAGE = "com.gooddata.http.client.";
+    private static final String BENCHMARK_PACKAGE = "com.gooddata.http.client.benchmark.";
+
+    public static void main(final String[] args) throws Exception {
+        final int requests = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final List<Integer> levels = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            levels.add(Integer.parseInt(args[i]));
+        }
+        if (levels.isEmpty()) {
+            levels.addAll(List.of(1_000, 10_000, 100_000));
+        }
+
+        final AtomicInteger pinnedEvents = new AtomicInteger();
+        final ConcurrentHashMap<String, Integer> pinnedAt = new ConcurrentHashMap<>();
+        final StubServer server = new StubServer(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        final HttpHost host = server.getHost();
+        final ScheduledExecutorService expirator = Executors.newSingleThreadScheduledExecutor();
+        expirator.scheduleAtFixedRate(server::expireTt, 100, 100, TimeUnit.MILLISECONDS);
+
+        final List<Double> throughputs = new ArrayList<>();
+        try (RecordingStream pinning = new RecordingStream();
+             CloseableHttpClient httpClient = createHttpClient();
+             CloseableHttpClient loginHttpClient = createHttpClient()) {
+            pinning.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            pinning.onEvent("jdk.VirtualThreadPinned", event -> {
+                final String frame = clientFrame(event);
+                if (frame != null) {
+                    pinnedEvents.incrementAndGet();
+                    pinnedAt.merge(frame, 1, Integer::sum);
+                }
+            });
+            pinning.startAsync();
+
+            final HttpClient client = new GoodDataHttpClient(httpClient,
+                    new LoginSSTRetrievalStrategy(loginHttpClient, host, "user@email.com", "top secret"));
+            for (int level : levels) {
+                throughputs.add(run(client, host, level, requests));
+            }
+            pinning.stop();
+        } finally {
+            expirator.shutdownNow();
+            server.stop();
+        }
+
+        System.out.println("Logins: " + server.getLogins() + ", TT refreshes: " + server.getTtRefreshes());
+        System.out.println("Pinned virtual threads in client: " + pinnedEvents.get());
+        pinnedAt.forEach((frame, count) -> System.out.println("  " + count + "x at " + frame));
+
+        final double best = throughputs.stream().mapToDouble(Double::doubleValue).max().orElse(0);
+        final double highest = throughputs.get(throughputs.size() - 1);
+        boolean failed = pinnedEvents.get() > 0;
+        if (highest < best / 2) {
+            System.out.println("Throughput collapsed at highest concurrency: " + highest + " req/s, best " + best + " req/s");
+            failed = true;
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    private static double run(final HttpClient client, final HttpHost host, final int threads, final int requests)
+            throws InterruptedException {
+        final LongAdder ok = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < threads; i++) {
+                executor.submit(() -> {
+                    for (int r = 0; r < requests; r++) {
+                        try {
+                            final HttpResponse response = client.execute(host, new HttpGet(StubServer.PROJECTS_URL));
+                            EntityUtils.consume(response.getEntity());
+                            if (response.getStatusLine().getStatusCode() == 200) {
+                                ok.increment();
+                            } else {
+                                failed.increment();
+                            }
+                        } catch (Exception e) {
+                            failed.increment();
+                        }
+                    }
+                });
+            }
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        final double throughput = (ok.sum() + failed.sum()) / seconds;
+        System.out.printf("%,9d virtual threads: %,12.0f req/s, %,d ok, %,d failed%n",
+                threads, throughput, ok.sum(), failed.sum());
+        return throughput;
+    }
+
+    /**
+     * Top-most stack frame of the client (or of the HTTP client called by it), null when the pinned thread
+     * was not executing the client.
+     */
+    private static String clientFrame(final RecordedEvent event) {
+        final RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace == null) {
+            return null;
+        }
+        boolean inClient = false;
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            final String type = frame.getMethod().getType().getName();
+            if (type.startsWith(CLIENT_PACKAGE) && !type.startsWith(BENCHMARK_PACKAGE)) {
+                inClient = true;
+                break;
+            }
+        }
+        if (!inClient || stackTrace.getFrames().isEmpty()) {
+            return null;
+        }
+        final RecordedFrame top = stackTrace.getFrames().get(0);
+        return top.getMethod().getType().getName() + "." + top.getMethod().getName() + ":" + top.getLineNumber();
+    }
+
+    private static CloseableHttpClient createHttpClient() {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(512);
+        connectionManager.setDefaultMaxPerRoute(512);
+        return HttpClientBuilder.create().setConnectionManager(connectionManager).build();
+    }
+}
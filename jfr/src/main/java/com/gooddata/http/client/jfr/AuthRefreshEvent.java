@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * TT refresh or SST retrieval performed by GoodData HTTP client.
+ */
+@Name(AuthRefreshEvent.NAME)
+@Label("GoodData Auth Refresh")
+@Description("TT refresh or SST retrieval performed by GoodData HTTP client, committed when it finishes")
+@Category({"GoodData", "HTTP Client"})
+@Enabled(false)
+@StackTrace(false)
+class AuthRefreshEvent extends Event {
+
+    static final String NAME = "com.gooddata.http.client.AuthRefresh";
+
+    @Label("Host")
+    String host;
+
+    @Label("Token")
+    @Description("Refreshed token, TT or SST")
+    String token;
+
+    @Label("Successful")
+    boolean successful;
+
+    @Label("Refresh Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long refreshDuration;
+}
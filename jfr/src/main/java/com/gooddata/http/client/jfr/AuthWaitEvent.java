@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Request of GoodData HTTP client which was challenged and waited for authentication.
+ */
+@Name(AuthWaitEvent.NAME)
+@Label("GoodData Auth Wait")
+@Description("Request of GoodData HTTP client which waited for authentication, committed when the request completes")
+@Category({"GoodData", "HTTP Client"})
+@Enabled(false)
+@StackTrace(false)
+class AuthWaitEvent extends Event {
+
+    static final String NAME = "com.gooddata.http.client.AuthWait";
+
+    @Label("Target")
+    String target;
+
+    @Label("Method")
+    String method;
+
+    @Label("Challenge")
+    String challenge;
+
+    @Label("Wait Duration")
+    @Description("Time spent waiting for authentication (performed by this or other thread) including backoff")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitDuration;
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client.jfr;
+
+import com.gooddata.http.client.MetricsListener;
+import com.gooddata.http.client.RequestMetrics;
+import org.apache.http.HttpHost;
+
+/**
+ * Metrics listener emitting Java Flight Recorder events: <code>com.gooddata.http.client.Request</code> per request,
+ * <code>com.gooddata.http.client.AuthRefresh</code> per TT refresh and SST retrieval and
+ * <code>com.gooddata.http.client.AuthWait</code> per request which waited for authentication.
+ * The events are disabled by default, enable them in the recording settings. They are committed when the measured
+ * operation finishes, its duration is in the duration field of the event.
+ */
+public class JfrMetricsListener implements MetricsListener {
+
+    private final MetricsListener delegate;
+
+    public JfrMetricsListener() {
+        this(MetricsListener.NOOP);
+    }
+
+    /**
+     * Construct listener which also notifies the given one.
+     * @param delegate listener to notify
+     */
+    public JfrMetricsListener(final MetricsListener delegate) {
+        this.delegate = delegate != null ? delegate : MetricsListener.NOOP;
+    }
+
+    @Override
+    public void requestCompleted(final RequestMetrics metrics) {
+        final RequestEvent event = new RequestEvent();
+        if (event.shouldCommit()) {
+            event.target = metrics.getHost().toURI();
+            event.method = metrics.getMethod();
+            event.status = metrics.getStatus();
+            event.challenge = metrics.getChallenge().name();
+            event.retries = metrics.getRetries();
+            event.requestDuration = metrics.getTotalNanos();
+            event.transportDuration = metrics.getTransportNanos();
+            event.authWaitDuration = metrics.getAuthWaitNanos();
+            event.commit();
+        }
+        if (metrics.getAuthWaitNanos() > 0) {
+            final AuthWaitEvent waitEvent = new AuthWaitEvent();
+            if (waitEvent.shouldCommit()) {
+                waitEvent.target = metrics.getHost().toURI();
+                waitEvent.method = metrics.getMethod();
+                waitEvent.challenge = metrics.getChallenge().name();
+                waitEvent.waitDuration = metrics.getAuthWaitNanos();
+                waitEvent.commit();
+            }
+        }
+        delegate.requestCompleted(metrics);
+    }
+
+    @Override
+    public void ttRefreshed(final HttpHost host, final long durationNanos, final boolean successful) {
+        refreshed(host, "TT", durationNanos, successful);
+        delegate.ttRefreshed(host, durationNanos, successful);
+    }
+
+    @Override
+    public void sstObtained(final HttpHost host, final long durationNanos, final boolean successful) {
+        refreshed(host, "SST", durationNanos, successful);
+        delegate.sstObtained(host, durationNanos, successful);
+    }
+
+    private static void refreshed(final HttpHost host, final String token, final long durationNanos,
+                                  final boolean successful) {
+        final AuthRefreshEvent event = new AuthRefreshEvent();
+        if (event.shouldCommit()) {
+            event.host = host.toURI();
+            event.token = token;
+            event.successful = successful;
+            event.refreshDuration = durationNanos;
+            event.commit();
+        }
+    }
+}
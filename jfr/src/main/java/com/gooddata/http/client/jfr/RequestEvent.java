@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Request executed by GoodData HTTP client, committed when the request completes.
+ */
+@Name(RequestEvent.NAME)
+@Label("GoodData HTTP Request")
+@Description("Request executed by GoodData HTTP client, committed when the request completes")
+@Category({"GoodData", "HTTP Client"})
+@Enabled(false)
+@StackTrace(false)
+class RequestEvent extends Event {
+
+    static final String NAME = "com.gooddata.http.client.Request";
+
+    @Label("Target")
+    String target;
+
+    @Label("Method")
+    String method;
+
+    @Label("Status")
+    @Description("Status code returned to the caller, -1 when the request failed with an exception")
+    int status;
+
+    @Label("Challenge")
+    @Description("Last GoodData challenge received")
+    String challenge;
+
+    @Label("Retries")
+    @Description("Number of replays after authentication")
+    int retries;
+
+    @Label("Request Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long requestDuration;
+
+    @Label("Transport Duration")
+    @Description("Time spent in the wrapped HTTP client")
+    @Timespan(Timespan.NANOSECONDS)
+    long transportDuration;
+
+    @Label("Auth Wait Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long authWaitDuration;
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client.jfr;
+
+import com.gooddata.http.client.GoodDataHttpClient;
+import com.gooddata.http.client.HistogramMetricsListener;
+import com.gooddata.http.client.SSTRetrievalStrategy;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JfrMetricsListenerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final HttpHost host = new HttpHost("localhost", 8080, "http");
+
+    private HttpClient httpClient;
+    private GoodDataHttpClient client;
+    private HistogramMetricsListener histograms;
+
+    @Before
+    public void setUp() throws Exception {
+        httpClient = mock(HttpClient.class);
+        client = new GoodDataHttpClient(httpClient, mock(SSTRetrievalStrategy.class));
+        histograms = new HistogramMetricsListener();
+        client.setMetricsListener(new JfrMetricsListener(histograms));
+
+        final HttpResponse challenge = new BasicHttpResponse(HttpVersion.HTTP_1_1, 401, "Unauthorized");
+        challenge.setHeader("WWW-Authenticate", "GoodData realm=\"GoodData API\" cookie=GDCAuthTT");
+        final HttpResponse ttRefreshed = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        ttRefreshed.setHeader("Set-Cookie", "GDCAuthTT=tt; path=/gdc; HttpOnly");
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(challenge)
+                .thenReturn(ttRefreshed)
+                .thenReturn(new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"));
+    }
+
+    @Test
+    public void eventsRecorded() throws Exception {
+        final List<RecordedEvent> events = record(true);
+
+        final RecordedEvent request = find(events, RequestEvent.NAME);
+        assertEquals("http://localhost:8080", request.getString("target"));
+        assertEquals("GET", request.getString("method"));
+        assertEquals(200, request.getInt("status"));
+        assertEquals("TT", request.getString("challenge"));
+        assertEquals(1, request.getInt("retries"));
+        assertTrue(request.getLong("requestDuration") > 0);
+
+        final RecordedEvent refresh = find(events, AuthRefreshEvent.NAME);
+        assertEquals("TT", refresh.getString("token"));
+        assertTrue(refresh.getBoolean("successful"));
+
+        final RecordedEvent wait = find(events, AuthWaitEvent.NAME);
+        assertEquals("GET", wait.getString("method"));
+        assertTrue(wait.getLong("waitDuration") > 0);
+
+        assertEquals(1, histograms.getTotal().getCount());
+    }
+
+    @Test
+    public void eventsDisabledByDefault() throws Exception {
+        assertTrue(record(false).isEmpty());
+        assertEquals(1, histograms.getTtRefresh().getCount());
+    }
+
+    private List<RecordedEvent> record(final boolean enable) throws Exception {
+        final File file = folder.newFile("recording.jfr");
+        try (Recording recording = new Recording()) {
+            if (enable) {
+                recording.enable(RequestEvent.NAME);
+                recording.enable(AuthRefreshEvent.NAME);
+                recording.enable(AuthWaitEvent.NAME);
+            }
+            recording.start();
+            client.execute(host, new HttpGet("/gdc/projects"));
+            recording.stop();
+            recording.dump(file.toPath());
+        }
+        final List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            if (event.getEventType().getName().startsWith("com.gooddata.")) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private static RecordedEvent find(final List<RecordedEvent> events, final String name) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                return event;
+            }
+        }
+        throw new AssertionError("Event " + name + " not recorded in " + events);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Limit of requests in flight adapting to the server, see
+ * {@link GoodDataHttpClient#setConcurrencyLimiter(AdaptiveConcurrencyLimiter)}. The limit grows additively
+ * (by one per limit of responses) while it is utilized and the round-trip time stays within tolerance of the minimal
+ * one, and is cut multiplicatively (at most once per round-trip) on 429 and 503 responses, socket timeouts and
+ * round-trip times exceeding the tolerance. The minimal round-trip time is re-learned periodically, so that the limiter
+ * follows lasting changes of the server latency.
+ * <p>
+ * Requests over the limit wait for a request in flight to complete, requests which would wait longer than
+ * {@link #setMaxWaitMillis(long)} are rejected by the client with synthetic 503 response without being sent.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 200;
+
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double DEFAULT_RTT_TOLERANCE = 2.0;
+    private static final int MIN_RTT_SAMPLES = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    /**
+     * Current limit, bits of double value.
+     */
+    private final AtomicLong limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong minRttNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicInteger samples = new AtomicInteger();
+    private final AtomicLong lastDecrease = new AtomicLong(System.nanoTime() - TimeUnit.HOURS.toNanos(1));
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private volatile long maxWaitNanos = Long.MAX_VALUE;
+    private volatile double rttTolerance = DEFAULT_RTT_TOLERANCE;
+
+    /**
+     * Construct limiter starting at {@link #DEFAULT_INITIAL_LIMIT} adapting between {@link #DEFAULT_MIN_LIMIT}
+     * and {@link #DEFAULT_MAX_LIMIT}.
+     */
+    public AdaptiveConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * Construct object.
+     * @param initialLimit initial number of requests in flight
+     * @param minLimit minimal limit
+     * @param maxLimit maximal limit
+     */
+    public AdaptiveConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit) {
+        isTrue(minLimit > 0, "Min limit must be positive");
+        isTrue(minLimit <= initialLimit && initialLimit <= maxLimit, "Initial limit must be between min and max limit");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = new AtomicLong(Double.doubleToLongBits(initialLimit));
+    }
+
+    /**
+     * Set how long a request can wait for the limit, requests which would wait longer are rejected.
+     * Requests wait as long as needed by default.
+     * @param maxWaitMillis maximal wait in milliseconds, zero to reject requests over the limit immediately
+     */
+    public void setMaxWaitMillis(final long maxWaitMillis) {
+        isTrue(maxWaitMillis >= 0, "Max wait cannot be negative");
+        this.maxWaitNanos = maxWaitMillis < Long.MAX_VALUE / 1000000 ? TimeUnit.MILLISECONDS.toNanos(maxWaitMillis)
+                : Long.MAX_VALUE;
+    }
+
+    /**
+     * Set how many times the round-trip time can exceed the minimal one before the limit is cut. Default is 2.
+     * @param rttTolerance tolerance, greater than 1
+     */
+    public void setRttTolerance(final double rttTolerance) {
+        isTrue(rttTolerance > 1, "RTT tolerance must be greater than 1");
+        this.rttTolerance = rttTolerance;
+    }
+
+    /**
+     * @return current limit of requests in flight
+     */
+    public int getLimit() {
+        return (int) limit();
+    }
+
+    /**
+     * @return number of requests in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Acquire a slot for request, waiting for it up to max wait.
+     * @return true when acquired, false when the request was rejected
+     * @throws InterruptedIOException interrupted while waiting
+     */
+    boolean acquire() throws InterruptedIOException {
+        if (tryAcquire()) {
+            return true;
+        }
+        long remaining = maxWaitNanos;
+        if (remaining == 0) {
+            return false;
+        }
+        lock.lock();
+        waiting.incrementAndGet();
+        try {
+            while (!tryAcquire()) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = released.awaitNanos(remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for concurrency limit");
+        } finally {
+            waiting.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release slot of the request and adapt the limit.
+     * @param rttNanos round-trip time of the request
+     * @param overloaded whether the server signalled overload (429, 503, timeout)
+     * @param now current time in nanoseconds
+     */
+    void release(final long rttNanos, final boolean overloaded, final long now) {
+        record(rttNanos, overloaded, now);
+        release();
+    }
+
+    /**
+     * Adapt the limit to the response of a request still holding its slot (its entity is not consumed yet).
+     * @param rttNanos round-trip time of the request until the response headers arrived
+     * @param overloaded whether the server signalled overload (429, 503, timeout)
+     * @param now current time in nanoseconds
+     */
+    void record(final long rttNanos, final boolean overloaded, final long now) {
+        adapt(rttNanos, overloaded, inFlight.get(), now);
+    }
+
+    /**
+     * Release slot of the request without adapting the limit (request failed for an unrelated reason).
+     */
+    void release() {
+        inFlight.decrementAndGet();
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= (int) limit()) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void adapt(final long rttNanos, final boolean overloaded, final int utilized, final long now) {
+        final long minRtt = updateMinRtt(rttNanos);
+        if (overloaded || rttNanos > minRtt * rttTolerance) {
+            final long last = lastDecrease.get();
+            if (now - last >= rttNanos && lastDecrease.compareAndSet(last, now)) {
+                long current;
+                double next;
+                do {
+                    current = limit.get();
+                    next = Math.max(Double.longBitsToDouble(current) * BACKOFF_RATIO, minLimit);
+                } while (!limit.compareAndSet(current, Double.doubleToLongBits(next)));
+            }
+        } else if (utilized * 2 >= limit()) {
+            long current;
+            double next;
+            do {
+                current = limit.get();
+                final double value = Double.longBitsToDouble(current);
+                next = Math.min(value + 1 / value, maxLimit);
+            } while (!limit.compareAndSet(current, Double.doubleToLongBits(next)));
+        }
+    }
+
+    /**
+     * Record round-trip time, the minimum is restarted every {@value #MIN_RTT_SAMPLES} samples.
+     * @return minimal round-trip time
+     */
+    private long updateMinRtt(final long rttNanos) {
+        if (samples.incrementAndGet() % MIN_RTT_SAMPLES == 0) {
+            minRttNanos.set(rttNanos);
+            return rttNanos;
+        }
+        while (true) {
+            final long current = minRttNanos.get();
+            if (rttNanos >= current) {
+                return current;
+            }
+            if (minRttNanos.compareAndSet(current, rttNanos)) {
+                return rttNanos;
+            }
+        }
+    }
+
+    private double limit() {
+        return Double.longBitsToDouble(limit.get());
+    }
+}
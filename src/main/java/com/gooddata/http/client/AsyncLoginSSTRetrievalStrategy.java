@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.client.HttpAsyncClient;
+
+import java.util.concurrent.Future;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * This strategy obtains super-secure token via login and password using asynchronous HTTP client,
+ * no thread is blocked while the login is in progress.
+ */
+public class AsyncLoginSSTRetrievalStrategy implements AsyncSSTRetrievalStrategy {
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final String login;
+
+    private final String password;
+
+    private final HttpHost httpHost;
+
+    private final HttpAsyncClient httpClient;
+
+    /**
+     * Construct object.
+     * @param httpClient asynchronous HTTP client, must be started by the caller
+     * @param httpHost http host
+     * @param login user login
+     * @param password user password
+     */
+    public AsyncLoginSSTRetrievalStrategy(final HttpAsyncClient httpClient, final HttpHost httpHost,
+                                          final String login, final String password) {
+        notNull(httpClient, "HTTP Client cannot be null");
+        notNull(httpHost, "HTTP host cannot be null");
+        notNull(login, "Login cannot be null");
+        notNull(password, "Password cannot be null");
+        this.login = login;
+        this.password = password;
+        this.httpHost = httpHost;
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public Future<String> obtainSst(final FutureCallback<String> callback) {
+        log.debug("Obtaining STT");
+        final ChainedFuture<String> future = new ChainedFuture<String>(callback);
+        future.setCurrent(httpClient.execute(httpHost,
+                LoginSSTRetrievalStrategy.createLoginRequest(this.login, password),
+                new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(final HttpResponse response) {
+                final String sst;
+                try {
+                    sst = LoginSSTRetrievalStrategy.extractSst(response, httpHost);
+                } catch (GoodDataAuthException e) {
+                    future.failed(e);
+                    return;
+                }
+                future.completed(sst);
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                future.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel();
+            }
+        }));
+        return future;
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.concurrent.FutureCallback;
+
+import java.util.concurrent.Future;
+
+/**
+ * Interface for class which encapsulates asynchronous SST retrieval.
+ * Use {@link AsyncSSTRetrievalStrategyAdapter} or {@link BlockingSSTRetrievalStrategy} to convert
+ * from or to {@link SSTRetrievalStrategy}.
+ */
+public interface AsyncSSTRetrievalStrategy {
+
+    /**
+     * Starts obtaining SST.
+     * @param callback callback notified about the result, can be null
+     * @return future SST
+     */
+    Future<String> obtainSst(FutureCallback<String> callback);
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.concurrent.FutureCallback;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Adapts blocking {@link SSTRetrievalStrategy} to {@link AsyncSSTRetrievalStrategy},
+ * the blocking strategy runs on the given executor.
+ */
+public class AsyncSSTRetrievalStrategyAdapter implements AsyncSSTRetrievalStrategy {
+
+    private final SSTRetrievalStrategy sstStrategy;
+
+    private final Executor executor;
+
+    /**
+     * Construct object.
+     * @param sstStrategy blocking SST retrieval strategy
+     * @param executor executor running the blocking strategy
+     */
+    public AsyncSSTRetrievalStrategyAdapter(final SSTRetrievalStrategy sstStrategy, final Executor executor) {
+        notNull(sstStrategy, "SST strategy cannot be null");
+        notNull(executor, "Executor cannot be null");
+        this.sstStrategy = sstStrategy;
+        this.executor = executor;
+    }
+
+    @Override
+    public Future<String> obtainSst(final FutureCallback<String> callback) {
+        final ChainedFuture<String> future = new ChainedFuture<String>(callback);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    try {
+                        future.completed(sstStrategy.obtainSst());
+                    } catch (Exception e) {
+                        future.failed(e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            future.failed(e);
+        }
+        return future;
+    }
+}
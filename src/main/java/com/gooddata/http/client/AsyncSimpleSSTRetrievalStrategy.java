@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+import java.util.concurrent.Future;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Provides super-secure token (SST) asynchronously, the returned future is already completed.
+ */
+public class AsyncSimpleSSTRetrievalStrategy implements AsyncSSTRetrievalStrategy {
+
+    private final String sst;
+
+    /**
+     * Creates new instance.
+     * @param sst super-secure token (SST)
+     */
+    public AsyncSimpleSSTRetrievalStrategy(final String sst) {
+        notNull(sst, "No SST set.");
+        this.sst = sst;
+    }
+
+    @Override
+    public Future<String> obtainSst(final FutureCallback<String> callback) {
+        final BasicFuture<String> future = new BasicFuture<String>(callback);
+        future.completed(sst);
+        return future;
+    }
+
+}
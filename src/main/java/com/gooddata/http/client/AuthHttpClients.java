@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Factory of HTTP clients dedicated to authentication (TT refresh and login), see
+ * {@link GoodDataHttpClient#setAuthHttpClient(org.apache.http.client.HttpClient)}. They have their own small
+ * connection pool and short timeouts, so authentication never waits behind data transfers for a connection.
+ * The created clients are owned by the caller, who has to close them.
+ */
+public final class AuthHttpClients {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 2;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    private AuthHttpClients() {
+    }
+
+    /**
+     * Create client with {@link #DEFAULT_MAX_CONNECTIONS} connections and {@link #DEFAULT_TIMEOUT_MILLIS} timeouts.
+     * @return new HTTP client
+     */
+    public static CloseableHttpClient createDefault() {
+        return create(DEFAULT_MAX_CONNECTIONS, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create client.
+     * @param maxConnections maximal number of connections
+     * @param timeoutMillis connect, socket and connection request timeout in milliseconds
+     * @return new HTTP client
+     */
+    public static CloseableHttpClient create(final int maxConnections, final int timeoutMillis) {
+        isTrue(maxConnections > 0, "Max connections must be positive");
+        isTrue(timeoutMillis > 0, "Timeout must be positive");
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(timeoutMillis)
+                .setSocketTimeout(timeoutMillis)
+                .setConnectionRequestTimeout(timeoutMillis)
+                .build();
+        return HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Adapts {@link AsyncSSTRetrievalStrategy} to blocking {@link SSTRetrievalStrategy},
+ * the calling thread waits for the asynchronous strategy to finish.
+ */
+public class BlockingSSTRetrievalStrategy implements SSTRetrievalStrategy {
+
+    private final AsyncSSTRetrievalStrategy sstStrategy;
+
+    /**
+     * Construct object.
+     * @param sstStrategy asynchronous SST retrieval strategy
+     */
+    public BlockingSSTRetrievalStrategy(final AsyncSSTRetrievalStrategy sstStrategy) {
+        notNull(sstStrategy, "SST strategy cannot be null");
+        this.sstStrategy = sstStrategy;
+    }
+
+    @Override
+    public String obtainSst() throws IOException {
+        final Future<String> sst = sstStrategy.obtainSst(null);
+        try {
+            return sst.get();
+        } catch (InterruptedException e) {
+            sst.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while obtaining SST");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new GoodDataAuthException("Unable to obtain SST", cause);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded lock-free pool of equally sized byte arrays, used to buffer request bodies.
+ */
+class ByteChunkPool {
+
+    static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+    static final int DEFAULT_MAX_POOLED = 256;
+
+    static final ByteChunkPool DEFAULT = new ByteChunkPool(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED);
+
+    private final int chunkSize;
+    private final int maxPooled;
+    private final Queue<byte[]> free = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    ByteChunkPool(final int chunkSize, final int maxPooled) {
+        this.chunkSize = chunkSize;
+        this.maxPooled = maxPooled;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Take pooled chunk or allocate new one when the pool is empty.
+     */
+    byte[] acquire() {
+        final byte[] chunk = free.poll();
+        if (chunk == null) {
+            return new byte[chunkSize];
+        }
+        pooled.decrementAndGet();
+        return chunk;
+    }
+
+    /**
+     * Return chunk to the pool, it is left to garbage collector when the pool is full.
+     */
+    void release(final byte[] chunk) {
+        if (chunk.length != chunkSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(chunk);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    int getPooled() {
+        return pooled.get();
+    }
+}
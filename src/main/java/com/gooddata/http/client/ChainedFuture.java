@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+
+import java.util.concurrent.Future;
+
+/**
+ * Future completed by a chain of asynchronous operations, cancelling it cancels the running operation.
+ */
+class ChainedFuture<T> extends BasicFuture<T> {
+
+    private volatile Future<?> current;
+
+    ChainedFuture(final FutureCallback<T> callback) {
+        super(callback);
+    }
+
+    /**
+     * Set operation currently running on behalf of this future, it is cancelled when this future is cancelled.
+     */
+    void setCurrent(final Future<?> current) {
+        this.current = current;
+        if (isCancelled()) {
+            current.cancel(true);
+        }
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        final boolean cancelled = super.cancel(mayInterruptIfRunning);
+        final Future<?> running = current;
+        if (cancelled && running != null) {
+            running.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Statistics of {@link GoodDataHttpClient} exposed by JMX. Updated on every request, so the request counters
+ * are striped.
+ */
+class ClientStatistics implements GoodDataHttpClientMXBean {
+
+    /**
+     * Operations of the client invoked by JMX.
+     */
+    interface Operations {
+        void forceTtRefresh() throws IOException;
+
+        void invalidateSst();
+
+        int getAuthWaitingThreads();
+
+        ConnPoolControl<?> getConnectionPool();
+
+        AdaptiveConcurrencyLimiter getConcurrencyLimiter();
+    }
+
+    private final Operations operations;
+
+    private final StripedCounter requests = new StripedCounter();
+    private final StripedCounter inFlight = new StripedCounter();
+    private final AtomicLong ttRefreshes = new AtomicLong();
+    private final AtomicLong failedTtRefreshes = new AtomicLong();
+    private final AtomicLong sstRefreshes = new AtomicLong();
+    private final AtomicLong failedSstRefreshes = new AtomicLong();
+    private volatile long lastTtRefresh = -1;
+    private volatile long lastSstRefresh = -1;
+
+    /**
+     * Request rate is computed between samples of the request count taken at most once per interval,
+     * so that the value does not depend on how often (and by how many clients) it is read.
+     */
+    static final long RATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Lock rateLock = new ReentrantLock();
+    private final long registered = System.nanoTime();
+    private long sampleCount;
+    private long sampleNanos = registered;
+    private double rate = -1;
+
+    ClientStatistics(final Operations operations) {
+        this.operations = operations;
+    }
+
+    void requestStarted() {
+        inFlight.increment();
+    }
+
+    void requestCompleted() {
+        inFlight.decrement();
+        requests.increment();
+    }
+
+    void ttRefreshed(final boolean successful) {
+        if (successful) {
+            ttRefreshes.incrementAndGet();
+            lastTtRefresh = System.currentTimeMillis();
+        } else {
+            failedTtRefreshes.incrementAndGet();
+        }
+    }
+
+    void sstObtained(final boolean successful) {
+        if (successful) {
+            sstRefreshes.incrementAndGet();
+            lastSstRefresh = System.currentTimeMillis();
+        } else {
+            failedSstRefreshes.incrementAndGet();
+        }
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    @Override
+    public double getRequestsPerSecond() {
+        return getRequestsPerSecond(System.nanoTime());
+    }
+
+    double getRequestsPerSecond(final long now) {
+        rateLock.lock();
+        try {
+            final long count = requests.sum();
+            if (now - sampleNanos >= RATE_INTERVAL_NANOS) {
+                rate = (count - sampleCount) * 1e9 / (now - sampleNanos);
+                sampleCount = count;
+                sampleNanos = now;
+            }
+            if (rate >= 0) {
+                return rate;
+            }
+            // first interval has not elapsed yet
+            return now > registered ? count * 1e9 / (now - registered) : 0;
+        } finally {
+            rateLock.unlock();
+        }
+    }
+
+    @Override
+    public long getInFlightRequests() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getTtRefreshCount() {
+        return ttRefreshes.get();
+    }
+
+    @Override
+    public long getFailedTtRefreshCount() {
+        return failedTtRefreshes.get();
+    }
+
+    @Override
+    public long getSstRefreshCount() {
+        return sstRefreshes.get();
+    }
+
+    @Override
+    public long getFailedSstRefreshCount() {
+        return failedSstRefreshes.get();
+    }
+
+    @Override
+    public long getMillisSinceLastTtRefresh() {
+        return millisSince(lastTtRefresh);
+    }
+
+    @Override
+    public long getMillisSinceLastSstRefresh() {
+        return millisSince(lastSstRefresh);
+    }
+
+    @Override
+    public int getAuthWaitingThreads() {
+        return operations.getAuthWaitingThreads();
+    }
+
+    @Override
+    public int getPoolLeased() {
+        final PoolStats stats = poolStats();
+        return stats != null ? stats.getLeased() : -1;
+    }
+
+    @Override
+    public int getPoolAvailable() {
+        final PoolStats stats = poolStats();
+        return stats != null ? stats.getAvailable() : -1;
+    }
+
+    @Override
+    public int getPoolPending() {
+        final PoolStats stats = poolStats();
+        return stats != null ? stats.getPending() : -1;
+    }
+
+    @Override
+    public int getPoolMax() {
+        final PoolStats stats = poolStats();
+        return stats != null ? stats.getMax() : -1;
+    }
+
+    @Override
+    public int getConcurrencyLimit() {
+        final AdaptiveConcurrencyLimiter limiter = operations.getConcurrencyLimiter();
+        return limiter != null ? limiter.getLimit() : -1;
+    }
+
+    @Override
+    public void forceTtRefresh() throws IOException {
+        operations.forceTtRefresh();
+    }
+
+    @Override
+    public void invalidateSst() {
+        operations.invalidateSst();
+    }
+
+    private PoolStats poolStats() {
+        final ConnPoolControl<?> pool = operations.getConnectionPool();
+        return pool != null ? pool.getTotalStats() : null;
+    }
+
+    private static long millisSince(final long time) {
+        return time < 0 ? -1 : System.currentTimeMillis() - time;
+    }
+}
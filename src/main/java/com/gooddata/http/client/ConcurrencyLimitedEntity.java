@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.conn.EofSensorInputStream;
+import org.apache.http.conn.EofSensorWatcher;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Response entity holding a slot of {@link AdaptiveConcurrencyLimiter} until the content is fully read or closed,
+ * so that the request counts as in flight until the response is consumed. The round-trip time is recorded
+ * when the response headers arrive, so it does not include the time the caller spends reading the content.
+ */
+class ConcurrencyLimitedEntity extends HttpEntityWrapper {
+
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * @param entity response entity
+     * @param limiter limiter whose slot is held
+     */
+    ConcurrencyLimitedEntity(final HttpEntity entity, final AdaptiveConcurrencyLimiter limiter) {
+        super(entity);
+        this.limiter = limiter;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        final InputStream content;
+        try {
+            content = super.getContent();
+        } catch (IOException e) {
+            release();
+            throw e;
+        }
+        if (content == null) {
+            release();
+            return null;
+        }
+        return new EofSensorInputStream(content, new EofSensorWatcher() {
+            @Override
+            public boolean eofDetected(final InputStream wrapped) throws IOException {
+                release();
+                return true;
+            }
+
+            @Override
+            public boolean streamClosed(final InputStream wrapped) throws IOException {
+                release();
+                return true;
+            }
+
+            @Override
+            public boolean streamAbort(final InputStream wrapped) throws IOException {
+                release();
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+        try {
+            super.writeTo(out);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    @Deprecated
+    public void consumeContent() throws IOException {
+        try {
+            super.consumeContent();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Release the slot, only the first call has effect.
+     */
+    void release() {
+        if (released.compareAndSet(false, true)) {
+            limiter.release();
+        }
+    }
+}
@@ -4,11 +4,23 @@
  */
 package com.gooddata.http.client;
 
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.CookieOrigin;
+import org.apache.http.cookie.CookieSpec;
+import org.apache.http.cookie.MalformedCookieException;
+import org.apache.http.cookie.SM;
 import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.impl.cookie.BestMatchSpec;
 import org.apache.http.protocol.HttpContext;
 
+import java.util.Date;
+import java.util.List;
+
 import static org.apache.commons.lang.Validate.notNull;
 
 /**
@@ -18,6 +30,8 @@ public class CookieUtils {
 
     public static final String SST_COOKIE_NAME = "GDCAuthSST";
     public static final String SST_COOKIE_PATH = "/gdc/account";
+    public static final String TT_COOKIE_NAME = "GDCAuthTT";
+    public static final String TT_COOKIE_PATH = "/gdc";
 
     private CookieUtils() { }
 
@@ -42,4 +56,70 @@ public class CookieUtils {
         replaceSst(sst, cookieStore, domain);
     }
 
+    /**
+     * Remove super-secure cookie from context.
+     * @param context HTTP context
+     * @param domain domain
+     */
+    static void removeSst(final HttpContext context, final String domain) {
+        notNull(context, "Context cannot be null.");
+        final CookieStore cookieStore = (CookieStore) context.getAttribute(HttpClientContext.COOKIE_STORE);
+        final BasicClientCookie cookie = new BasicClientCookie(SST_COOKIE_NAME, "");
+        cookie.setSecure(true);
+        cookie.setPath(SST_COOKIE_PATH);
+        cookie.setDomain(domain);
+        // expired cookie removes the existing one
+        cookie.setExpiryDate(new Date(0));
+        cookieStore.addCookie(cookie);
+    }
+
+    /**
+     * Add (or replace) temporary token cookie in context.
+     * @param tt temporary token
+     * @param context HTTP context
+     * @param httpHost host the token was obtained from
+     * @param expiration TT expiration in milliseconds since epoch, negative value when unknown
+     */
+    static void replaceTt(final String tt, final HttpContext context, final HttpHost httpHost, final long expiration) {
+        notNull(context, "Context cannot be null.");
+        final CookieStore cookieStore = (CookieStore) context.getAttribute(HttpClientContext.COOKIE_STORE);
+        final BasicClientCookie cookie = new BasicClientCookie(TT_COOKIE_NAME, tt);
+        cookie.setSecure("https".equalsIgnoreCase(httpHost.getSchemeName()));
+        cookie.setPath(TT_COOKIE_PATH);
+        cookie.setDomain(httpHost.getHostName());
+        if (expiration >= 0) {
+            cookie.setExpiryDate(new Date(expiration));
+        }
+        cookieStore.addCookie(cookie);
+    }
+
+    /**
+     * Find cookie of given name set by the response.
+     * @param response HTTP response
+     * @param httpHost host the response was received from
+     * @param path path of the request
+     * @param name cookie name
+     * @return cookie or <code>null</code> when the response does not set it
+     * @throws MalformedCookieException response contains malformed Set-Cookie header
+     */
+    static Cookie extractCookie(final HttpResponse response, final HttpHost httpHost, final String path,
+                                final String name) throws MalformedCookieException {
+        final CookieSpec cookieSpec = new BestMatchSpec();
+        final CookieOrigin cookieOrigin = new CookieOrigin(httpHost.getHostName(), getPort(httpHost), path, true);
+        for (Header header : response.getHeaders(SM.SET_COOKIE)) {
+            final List<Cookie> cookies = cookieSpec.parse(header, cookieOrigin);
+            if (cookies.size() > 0 && name.equals(cookies.get(0).getName())) {
+                return cookies.get(0);
+            }
+        }
+        return null;
+    }
+
+    private static int getPort(final HttpHost httpHost) {
+        if (httpHost.getPort() >= 0) {
+            return httpHost.getPort();
+        }
+        return "http".equalsIgnoreCase(httpHost.getSchemeName()) ? 80 : 443;
+    }
+
 }
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Token cache stored in a local file encrypted by AES (CBC) and authenticated by HMAC-SHA256 (encrypt-then-MAC).
+ * The key is read from the key file, which is created with owner-only permissions when it does not exist
+ * (under lock of the <code>&lt;key file&gt;.lock</code> file, so that concurrently starting processes share one key).
+ * Cache file which cannot be decrypted or verified (e.g. the key was replaced) is treated as empty.
+ */
+public class EncryptedFileTokenCache implements TokenCache {
+
+    private static final int MAGIC = 0x47445443; // GDTC
+    private static final int VERSION = 1;
+    private static final int ENCRYPTION_KEY_LENGTH = 16;
+    private static final int MAC_KEY_LENGTH = 32;
+    private static final int IV_LENGTH = 16;
+    private static final int MAC_LENGTH = 32;
+    private static final String CIPHER = "AES/CBC/PKCS5Padding";
+    private static final String MAC = "HmacSHA256";
+
+    /**
+     * Serializes key creation among threads of the process, file lock cannot be acquired twice in a process.
+     */
+    private static final Object KEY_CREATION_LOCK = new Object();
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final File file;
+
+    private final File keyFile;
+
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Construct object.
+     * @param file cache file
+     * @param keyFile key file, created when it does not exist
+     */
+    public EncryptedFileTokenCache(final File file, final File keyFile) {
+        notNull(file, "File cannot be null");
+        notNull(keyFile, "Key file cannot be null");
+        this.file = file;
+        this.keyFile = keyFile;
+    }
+
+    /**
+     * Construct object using key file <code>&lt;file&gt;.key</code>.
+     * @param file cache file
+     */
+    public EncryptedFileTokenCache(final File file) {
+        this(file, new File(file.getPath() + ".key"));
+    }
+
+    @Override
+    public GoodDataTokens load() throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        final byte[] data = readFile(file);
+        if (data.length < 8 + IV_LENGTH + MAC_LENGTH) {
+            log.warn("Ignoring token cache " + file + ": truncated");
+            return null;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Ignoring token cache " + file + ": unknown format");
+                return null;
+            }
+            final byte[] key = loadKey();
+            final int macOffset = data.length - MAC_LENGTH;
+            final byte[] expectedMac = mac(key, data, 0, macOffset);
+            if (!MessageDigest.isEqual(expectedMac, Arrays.copyOfRange(data, macOffset, data.length))) {
+                log.warn("Ignoring token cache " + file + ": verification failed");
+                return null;
+            }
+            final byte[] iv = new byte[IV_LENGTH];
+            in.readFully(iv);
+            final byte[] encrypted = Arrays.copyOfRange(data, 8 + IV_LENGTH, macOffset);
+            final byte[] plain = cipher(Cipher.DECRYPT_MODE, key, iv).doFinal(encrypted);
+            return GoodDataTokens.readFrom(new DataInputStream(new ByteArrayInputStream(plain)));
+        } catch (GeneralSecurityException e) {
+            log.warn("Ignoring token cache " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void store(final GoodDataTokens tokens) throws IOException {
+        notNull(tokens, "Tokens cannot be null");
+        final ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        tokens.writeTo(new DataOutputStream(plain));
+
+        final byte[] key = loadKey();
+        final byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(data);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(iv);
+        try {
+            out.write(cipher(Cipher.ENCRYPT_MODE, key, iv).doFinal(plain.toByteArray()));
+            final byte[] header = data.toByteArray();
+            out.write(mac(key, header, 0, header.length));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to encrypt tokens: " + e.getMessage());
+        }
+        writeFileAtomically(file, data.toByteArray());
+    }
+
+    private byte[] loadKey() throws IOException {
+        if (!keyFile.exists()) {
+            createKeyFile();
+        }
+        final byte[] key = readFile(keyFile);
+        if (key.length != ENCRYPTION_KEY_LENGTH + MAC_KEY_LENGTH) {
+            throw new IOException("Invalid token cache key file " + keyFile);
+        }
+        return key;
+    }
+
+    /**
+     * Create the key file exclusively: the key is generated only by the process holding the lock of the sibling
+     * lock file (and by one thread of the process) and only when the key file still does not exist, so that all
+     * processes starting at once end up with the same key. The key is written to a temporary file and renamed,
+     * so that readers not taking the lock never see partially written key. The lock file is left in place.
+     */
+    private void createKeyFile() throws IOException {
+        synchronized (KEY_CREATION_LOCK) {
+            final RandomAccessFile lockFile = new RandomAccessFile(keyFile.getPath() + ".lock", "rw");
+            try {
+                final FileLock lock = lockFile.getChannel().lock();
+                try {
+                    if (!keyFile.exists()) {
+                        writeKeyFile();
+                    }
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                lockFile.close();
+            }
+        }
+    }
+
+    private void writeKeyFile() throws IOException {
+        final byte[] key = new byte[ENCRYPTION_KEY_LENGTH + MAC_KEY_LENGTH];
+        random.nextBytes(key);
+        final File directory = keyFile.getAbsoluteFile().getParentFile();
+        final File temp = File.createTempFile(keyFile.getName(), ".tmp", directory);
+        try {
+            restrictToOwner(temp);
+            writeFile(temp, key);
+            if (!temp.renameTo(keyFile)) {
+                throw new IOException("Unable to create token cache key file " + keyFile);
+            }
+        } finally {
+            if (temp.exists() && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+
+    private static Cipher cipher(final int mode, final byte[] key, final byte[] iv) throws GeneralSecurityException {
+        final Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(mode, new SecretKeySpec(key, 0, ENCRYPTION_KEY_LENGTH, "AES"), new IvParameterSpec(iv));
+        return cipher;
+    }
+
+    private static byte[] mac(final byte[] key, final byte[] data, final int offset, final int length) throws IOException {
+        try {
+            final Mac mac = Mac.getInstance(MAC);
+            mac.init(new SecretKeySpec(key, ENCRYPTION_KEY_LENGTH, MAC_KEY_LENGTH, MAC));
+            mac.update(data, offset, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Unable to compute MAC: " + e.getMessage());
+        }
+    }
+
+    private static void restrictToOwner(final File file) {
+        file.setReadable(false, false);
+        file.setReadable(true, true);
+        file.setWritable(false, false);
+        file.setWritable(true, true);
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(final File file, final byte[] data) throws IOException {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write to a temporary file in the same directory and rename it, so that readers never see partial content.
+     */
+    private static void writeFileAtomically(final File file, final byte[] data) throws IOException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        final File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            restrictToOwner(temp);
+            writeFile(temp, data);
+            if (!temp.renameTo(file)) {
+                // rename does not replace existing file on some platforms
+                if (!file.delete() || !temp.renameTo(file)) {
+                    throw new IOException("Unable to replace token cache " + file);
+                }
+            }
+        } finally {
+            if (temp.exists() && !temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Token store kept in a file, which can be placed on a file system shared by the nodes. Compare-and-set is performed
+ * while holding an exclusive {@link FileLock}, so it is atomic as long as the file system supports file locking.
+ * The file is readable by its owner only, tokens are not encrypted.
+ */
+public class FileTokenStore implements TokenStore {
+
+    private static final int MAGIC = 0x47445453; // GDTS
+    private static final int FORMAT = 1;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final File file;
+
+    /**
+     * Locks of the files per canonical path, file lock cannot be acquired twice in a process. Locks are referenced
+     * weakly, so that the entry is removed once no store of the file remains.
+     */
+    private static final Map<String, LockReference> LOCKS = new HashMap<String, LockReference>();
+    private static final ReferenceQueue<ReentrantLock> RELEASED_LOCKS = new ReferenceQueue<ReentrantLock>();
+
+    private final ReentrantLock lock;
+
+    /**
+     * Construct object.
+     * @param file store file, created when it does not exist
+     */
+    public FileTokenStore(final File file) {
+        notNull(file, "File cannot be null");
+        this.file = file;
+        lock = internLock(canonicalPath(file));
+    }
+
+    private static ReentrantLock internLock(final String path) {
+        synchronized (LOCKS) {
+            LockReference released;
+            while ((released = (LockReference) RELEASED_LOCKS.poll()) != null) {
+                if (LOCKS.get(released.path) == released) {
+                    LOCKS.remove(released.path);
+                }
+            }
+            final LockReference existing = LOCKS.get(path);
+            final ReentrantLock existingLock = existing != null ? existing.get() : null;
+            if (existingLock != null) {
+                return existingLock;
+            }
+            final ReentrantLock newLock = new ReentrantLock();
+            LOCKS.put(path, new LockReference(path, newLock));
+            return newLock;
+        }
+    }
+
+    static int lockCount() {
+        synchronized (LOCKS) {
+            return LOCKS.size();
+        }
+    }
+
+    private static String canonicalPath(final File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    @Override
+    public TokenStoreEntry get() throws IOException {
+        lock();
+        try {
+            final RandomAccessFile store = open();
+            try {
+                final FileLock fileLock = store.getChannel().lock(0, Long.MAX_VALUE, true);
+                try {
+                    return read(store.getChannel());
+                } finally {
+                    fileLock.release();
+                }
+            } finally {
+                store.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean compareAndSet(final TokenStoreEntry expected, final TokenStoreEntry update) throws IOException {
+        notNull(expected, "Expected entry cannot be null");
+        notNull(update, "Update cannot be null");
+        lock();
+        try {
+            final RandomAccessFile store = open();
+            try {
+                final FileChannel channel = store.getChannel();
+                final FileLock fileLock = channel.lock();
+                try {
+                    if (read(channel).getVersion() != expected.getVersion()) {
+                        return false;
+                    }
+                    write(channel, update);
+                    return true;
+                } finally {
+                    fileLock.release();
+                }
+            } finally {
+                store.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void lock() throws InterruptedIOException {
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while locking token store");
+        }
+    }
+
+    private RandomAccessFile open() throws IOException {
+        if (file.createNewFile()) {
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(false, false);
+            file.setWritable(true, true);
+        }
+        return new RandomAccessFile(file, "rw");
+    }
+
+    private TokenStoreEntry read(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size == 0) {
+            return TokenStoreEntry.EMPTY;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) != -1) {
+            // read whole file
+        }
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                log.warn("Ignoring token store " + file + ": unknown format");
+                return TokenStoreEntry.EMPTY;
+            }
+            return TokenStoreEntry.readFrom(in);
+        } catch (IOException e) {
+            log.warn("Ignoring token store " + file + ": " + e.getMessage());
+            return TokenStoreEntry.EMPTY;
+        }
+    }
+
+    private static void write(final FileChannel channel, final TokenStoreEntry entry) throws IOException {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(data);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        entry.writeTo(out);
+        final ByteBuffer buffer = ByteBuffer.wrap(data.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+        channel.truncate(buffer.limit());
+        channel.force(false);
+    }
+
+    private static final class LockReference extends WeakReference<ReentrantLock> {
+        private final String path;
+
+        private LockReference(final String path, final ReentrantLock lock) {
+            super(lock, RELEASED_LOCKS);
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HeaderIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AUTH;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Scanner of GoodData authentication challenges, e.g. <code>GoodData realm="GoodData API" cookie=GDCAuthTT</code>,
+ * in the value of <code>WWW-Authenticate</code> header. The value can contain several comma-separated challenges
+ * of different schemes, parameters are separated by whitespace or commas, their values are tokens or quoted strings.
+ * A token not followed by <code>=</code> starts a new challenge.
+ * <p>
+ * Instance is a reusable flyweight over the parsed header value, which does not allocate: parameters of the chosen
+ * challenge are iterated by {@link #nextParameter()} and exposed as offsets into {@link #getValue()}. Only
+ * {@link #getParameterValue()} and the methods based on it create strings. Instance is not thread safe.
+ * <pre>
+ * GoodDataChallenge challenge = new GoodDataChallenge();
+ * if (challenge.parse(response) &amp;&amp; challenge.findParameter("realm")) {
+ *     String realm = challenge.getValue().substring(challenge.getValueStart(), challenge.getValueEnd());
+ * }
+ * </pre>
+ */
+public final class GoodDataChallenge {
+
+    private static final String SCHEME = "GoodData";
+    private static final String COOKIE = "cookie";
+    private static final String REALM = "realm";
+    private static final String GDC_AUTH_TT = "GDCAuthTT";
+    private static final String GDC_AUTH_SST = "GDCAuthSST";
+
+    private String value;
+    private GoodDataChallengeType type;
+    private int start;
+    private int end;
+
+    private int position;
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+    private boolean quoted;
+
+    /**
+     * Parse the value of <code>WWW-Authenticate</code> header, choosing the first GoodData challenge with known
+     * cookie, otherwise the first GoodData challenge. The parameter cursor is placed before its first parameter.
+     * @param value header value
+     * @return true when the value contains GoodData challenge
+     */
+    public boolean parse(final String value) {
+        notNull(value, "Value cannot be null");
+        this.value = value;
+        type = null;
+        start = 0;
+        end = 0;
+        rewind();
+        final int length = value.length();
+        int challengeStart = -1;
+        GoodDataChallengeType challengeType = null;
+        int i = 0;
+        while (true) {
+            i = skipSeparators(value, i);
+            if (i >= length) {
+                choose(challengeStart, challengeType, length);
+                return type != null;
+            }
+            final int tokenStart = i;
+            i = tokenEnd(value, i);
+            final int tokenEnd = i;
+            if (i >= length || value.charAt(i) != '=') {
+                if (tokenEnd == tokenStart) {
+                    // stray quote
+                    i++;
+                    continue;
+                }
+                // auth scheme of the next challenge
+                if (choose(challengeStart, challengeType, tokenStart)) {
+                    return true;
+                }
+                final boolean goodData = regionEquals(value, tokenStart, tokenEnd, SCHEME, true);
+                challengeStart = goodData ? tokenEnd : -1;
+                challengeType = goodData ? GoodDataChallengeType.UNKNOWN : null;
+                continue;
+            }
+            i++;
+            final int parameterStart;
+            final int parameterEnd;
+            if (i < length && value.charAt(i) == '"') {
+                parameterStart = i + 1;
+                parameterEnd = quotedEnd(value, parameterStart);
+                i = Math.min(parameterEnd + 1, length);
+            } else {
+                parameterStart = i;
+                i = tokenEnd(value, i);
+                parameterEnd = i;
+            }
+            if (challengeType == GoodDataChallengeType.UNKNOWN
+                    && regionEquals(value, tokenStart, tokenEnd, COOKIE, true)) {
+                challengeType = cookieType(value, parameterStart, parameterEnd);
+            }
+        }
+    }
+
+    /**
+     * Parse the first <code>WWW-Authenticate</code> header of 401 response containing GoodData challenge.
+     * @param response HTTP response
+     * @return true when the response is 401 with GoodData challenge
+     */
+    public boolean parse(final HttpResponse response) {
+        notNull(response, "Response cannot be null");
+        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+            for (final HeaderIterator headers = response.headerIterator(AUTH.WWW_AUTH); headers.hasNext();) {
+                if (parse(headers.nextHeader().getValue())) {
+                    return true;
+                }
+            }
+        }
+        value = null;
+        type = null;
+        start = 0;
+        end = 0;
+        rewind();
+        return false;
+    }
+
+    /**
+     * @return parsed header value, the offsets point to it
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return challenge type determined by the <code>cookie</code> parameter, <code>null</code> when no GoodData
+     * challenge was parsed
+     */
+    public GoodDataChallengeType getType() {
+        return type;
+    }
+
+    /**
+     * Move the parameter cursor before the first parameter of the challenge.
+     */
+    public void rewind() {
+        position = start;
+        nameStart = -1;
+        nameEnd = -1;
+        valueStart = -1;
+        valueEnd = -1;
+        quoted = false;
+    }
+
+    /**
+     * Move the parameter cursor to the next parameter of the challenge.
+     * @return false when there are no more parameters
+     */
+    public boolean nextParameter() {
+        int i = position;
+        while (true) {
+            i = skipSeparators(value, i);
+            if (i >= end) {
+                position = end;
+                return false;
+            }
+            final int tokenStart = i;
+            i = tokenEnd(value, i);
+            if (i == tokenStart || i >= end || value.charAt(i) != '=') {
+                // stray quote
+                i = Math.max(i, tokenStart + 1);
+                continue;
+            }
+            nameStart = tokenStart;
+            nameEnd = i;
+            i++;
+            quoted = i < end && value.charAt(i) == '"';
+            if (quoted) {
+                valueStart = i + 1;
+                valueEnd = quotedEnd(value, valueStart);
+                i = Math.min(valueEnd + 1, end);
+            } else {
+                valueStart = i;
+                i = tokenEnd(value, i);
+                valueEnd = i;
+            }
+            position = i;
+            return true;
+        }
+    }
+
+    /**
+     * Move the parameter cursor to the first parameter of the given name.
+     * @param name parameter name, case insensitive
+     * @return false when the challenge has no such parameter
+     */
+    public boolean findParameter(final String name) {
+        notNull(name, "Name cannot be null");
+        rewind();
+        while (nextParameter()) {
+            if (isParameter(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param name parameter name, case insensitive
+     * @return whether the parameter under the cursor has the given name
+     */
+    public boolean isParameter(final String name) {
+        return nameStart >= 0 && regionEquals(value, nameStart, nameEnd, name, true);
+    }
+
+    /**
+     * @return start offset of the name of the parameter under the cursor
+     */
+    public int getNameStart() {
+        return nameStart;
+    }
+
+    /**
+     * @return end offset of the name of the parameter under the cursor
+     */
+    public int getNameEnd() {
+        return nameEnd;
+    }
+
+    /**
+     * @return start offset of the value of the parameter under the cursor, without the opening quote
+     */
+    public int getValueStart() {
+        return valueStart;
+    }
+
+    /**
+     * @return end offset of the value of the parameter under the cursor, without the closing quote
+     */
+    public int getValueEnd() {
+        return valueEnd;
+    }
+
+    /**
+     * @return whether the value of the parameter under the cursor is quoted (and may contain escapes)
+     */
+    public boolean isQuoted() {
+        return quoted;
+    }
+
+    /**
+     * @return value of the parameter under the cursor with escapes resolved, <code>null</code> when there is none
+     */
+    public String getParameterValue() {
+        if (valueStart < 0) {
+            return null;
+        }
+        return quoted ? unescape(value, valueStart, valueEnd) : value.substring(valueStart, valueEnd);
+    }
+
+    /**
+     * @param name parameter name, case insensitive
+     * @return value of the first parameter of the given name, <code>null</code> when not present
+     */
+    public String getParameter(final String name) {
+        return findParameter(name) ? getParameterValue() : null;
+    }
+
+    /**
+     * @return realm, <code>null</code> when not present
+     */
+    public String getRealm() {
+        return getParameter(REALM);
+    }
+
+    @Override
+    public String toString() {
+        return "GoodDataChallenge[type=" + type + ", challenge=" + (value != null ? value.substring(start, end) : null)
+                + "]";
+    }
+
+    /**
+     * Choose the challenge ending at the given offset unless already chosen one has known cookie.
+     * @return true when the chosen challenge has known cookie
+     */
+    private boolean choose(final int challengeStart, final GoodDataChallengeType challengeType, final int challengeEnd) {
+        if (challengeStart >= 0 && (type == null || type == GoodDataChallengeType.UNKNOWN
+                && challengeType != GoodDataChallengeType.UNKNOWN)) {
+            type = challengeType;
+            start = challengeStart;
+            end = challengeEnd;
+            position = start;
+        }
+        return type != null && type != GoodDataChallengeType.UNKNOWN;
+    }
+
+    /**
+     * Scan the header value in place, does not allocate.
+     * @param value header value
+     * @return type of the first GoodData challenge with known cookie, {@link GoodDataChallengeType#UNKNOWN} when
+     * there is GoodData challenge without known cookie, <code>null</code> when there is no GoodData challenge
+     */
+    static GoodDataChallengeType scan(final String value) {
+        final int length = value.length();
+        GoodDataChallengeType type = null;
+        boolean goodData = false;
+        int i = 0;
+        while (true) {
+            i = skipSeparators(value, i);
+            if (i >= length) {
+                return type;
+            }
+            final int nameStart = i;
+            i = tokenEnd(value, i);
+            final int nameEnd = i;
+            if (i >= length || value.charAt(i) != '=') {
+                if (nameEnd == nameStart) {
+                    // stray quote
+                    i++;
+                    continue;
+                }
+                // auth scheme of the next challenge
+                goodData = regionEquals(value, nameStart, nameEnd, SCHEME, true);
+                if (goodData && type == null) {
+                    type = GoodDataChallengeType.UNKNOWN;
+                }
+                continue;
+            }
+            i++;
+            final int valueStart;
+            final int valueEnd;
+            if (i < length && value.charAt(i) == '"') {
+                valueStart = i + 1;
+                valueEnd = quotedEnd(value, valueStart);
+                i = Math.min(valueEnd + 1, length);
+            } else {
+                valueStart = i;
+                i = tokenEnd(value, i);
+                valueEnd = i;
+            }
+            if (goodData && regionEquals(value, nameStart, nameEnd, COOKIE, true)) {
+                if (regionEquals(value, valueStart, valueEnd, GDC_AUTH_SST, false)) {
+                    return GoodDataChallengeType.SST;
+                } else if (regionEquals(value, valueStart, valueEnd, GDC_AUTH_TT, false)) {
+                    return GoodDataChallengeType.TT;
+                }
+            }
+        }
+    }
+
+    private static GoodDataChallengeType cookieType(final String s, final int start, final int end) {
+        if (regionEquals(s, start, end, GDC_AUTH_SST, false)) {
+            return GoodDataChallengeType.SST;
+        } else if (regionEquals(s, start, end, GDC_AUTH_TT, false)) {
+            return GoodDataChallengeType.TT;
+        }
+        return GoodDataChallengeType.UNKNOWN;
+    }
+
+    private static String unescape(final String s, final int start, final int end) {
+        final int backslash = s.indexOf('\\', start);
+        if (backslash < 0 || backslash >= end) {
+            return s.substring(start, end);
+        }
+        final StringBuilder value = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c == '\\' && i + 1 < end) {
+                i++;
+                value.append(s.charAt(i));
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
+    }
+
+    private static boolean regionEquals(final String s, final int start, final int end, final String expected,
+                                        final boolean ignoreCase) {
+        return end - start == expected.length() && s.regionMatches(ignoreCase, start, expected, 0, expected.length());
+    }
+
+    private static boolean isSeparator(final char c) {
+        return c == ',' || isWhitespace(c);
+    }
+
+    private static boolean isWhitespace(final char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static int skipWhitespace(final String s, int i) {
+        while (i < s.length() && isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipSeparators(final String s, int i) {
+        while (i < s.length() && isSeparator(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int tokenEnd(final String s, int i) {
+        while (i < s.length()) {
+            final char c = s.charAt(i);
+            if (c == '=' || c == '"' || isSeparator(c)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return index of the closing quote, or the length of the string when not terminated
+     */
+    private static int quotedEnd(final String s, int i) {
+        while (i < s.length()) {
+            final char c = s.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '"') {
+                return i;
+            }
+            i++;
+        }
+        return s.length();
+    }
+}
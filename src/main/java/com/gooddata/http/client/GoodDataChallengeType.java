@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AUTH;
+
+/**
+ * Type of GoodData authentication challenge.
+ */
+public enum GoodDataChallengeType {
+    SST, TT, UNKNOWN;
+
+    static final String COOKIE_GDC_AUTH_TT = "cookie=GDCAuthTT";
+    static final String COOKIE_GDC_AUTH_SST = "cookie=GDCAuthSST";
+
+    /**
+     * Identify GoodData challenge of the response. Runs on every response, so it does not allocate: responses other
+     * than 401 are decided by the status code and challenges are scanned in place.
+     * @param response HTTP response
+     * @return challenge type, {@link #UNKNOWN} when the response is not a GoodData challenge
+     */
+    public static GoodDataChallengeType identify(final HttpResponse response) {
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_UNAUTHORIZED) {
+            return UNKNOWN;
+        }
+        final Header first = response.getFirstHeader(AUTH.WWW_AUTH);
+        if (first == null) {
+            return UNKNOWN;
+        }
+        final GoodDataChallengeType type = GoodDataChallenge.scan(first.getValue());
+        if (type != null && type != UNKNOWN) {
+            return type;
+        }
+        if (response.getLastHeader(AUTH.WWW_AUTH) == first) {
+            return UNKNOWN;
+        }
+        // GoodData challenge may follow challenges of other schemes in separate headers
+        final HeaderIterator headers = response.headerIterator(AUTH.WWW_AUTH);
+        headers.nextHeader();
+        while (headers.hasNext()) {
+            final GoodDataChallengeType next = GoodDataChallenge.scan(headers.nextHeader().getValue());
+            if (next != null && next != UNKNOWN) {
+                return next;
+            }
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.CookieIdentityComparator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cookie store optimized for GoodData tokens, which change rarely (once per auth epoch) but are read
+ * by every request. Cookies are kept in an immutable snapshot replaced atomically on every change, so reading
+ * them needs no locking and no copying.
+ */
+public class GoodDataCookieStore implements CookieStore {
+
+    private static final Comparator<Cookie> IDENTITY = new CookieIdentityComparator();
+
+    private final AtomicReference<List<Cookie>> cookies =
+            new AtomicReference<List<Cookie>>(Collections.<Cookie>emptyList());
+
+    /**
+     * Add cookie replacing the one with the same name, domain and path. Expired cookie only removes
+     * the existing one.
+     * @param cookie cookie to add, <code>null</code> is ignored
+     */
+    @Override
+    public void addCookie(final Cookie cookie) {
+        if (cookie == null) {
+            return;
+        }
+        final Date now = new Date();
+        List<Cookie> current;
+        List<Cookie> updated;
+        do {
+            current = cookies.get();
+            updated = new ArrayList<Cookie>(current.size() + 1);
+            for (Cookie existing : current) {
+                if (IDENTITY.compare(existing, cookie) != 0) {
+                    updated.add(existing);
+                }
+            }
+            if (!cookie.isExpired(now)) {
+                updated.add(cookie);
+            }
+        } while (!cookies.compareAndSet(current, Collections.unmodifiableList(updated)));
+    }
+
+    /**
+     * @return unmodifiable snapshot of cookies
+     */
+    @Override
+    public List<Cookie> getCookies() {
+        return cookies.get();
+    }
+
+    @Override
+    public boolean clearExpired(final Date date) {
+        if (date == null) {
+            return false;
+        }
+        List<Cookie> current;
+        List<Cookie> updated;
+        do {
+            current = cookies.get();
+            updated = new ArrayList<Cookie>(current.size());
+            for (Cookie cookie : current) {
+                if (!cookie.isExpired(date)) {
+                    updated.add(cookie);
+                }
+            }
+            if (updated.size() == current.size()) {
+                return false;
+            }
+        } while (!cookies.compareAndSet(current, Collections.unmodifiableList(updated)));
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        cookies.set(Collections.<Cookie>emptyList());
+    }
+
+    @Override
+    public String toString() {
+        return cookies.get().toString();
+    }
+}
@@ -0,0 +1,656 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.apache.commons.lang.Validate.isTrue;
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * <p>Asynchronous HTTP client with ability to handle GoodData authentication, counterpart of
+ * {@link GoodDataHttpClient} for {@link HttpAsyncClient}.</p>
+ *
+ * <pre>
+ * // create and start asynchronous HTTP client
+ * CloseableHttpAsyncClient httpClient = HttpAsyncClients.createDefault();
+ * httpClient.start();
+ *
+ * // wrap it into GoodData HTTP client
+ * HttpAsyncClient client = new GoodDataHttpAsyncClient(httpClient, sstStrategy);
+ *
+ * // use GoodData HTTP client
+ * HttpGet getProject = new HttpGet("/gdc/projects");
+ * getProject.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
+ * Future&lt;HttpResponse&gt; getProjectResponse = client.execute(httpHost, getProject, callback);
+ * </pre>
+ *
+ * GoodData challenges are handled the same way as by {@link GoodDataHttpClient}: the first request challenged
+ * in an auth epoch refreshes TT (or obtains SST when TT cannot be refreshed), other requests challenged in the same
+ * epoch are replayed once it finishes. TT refresh is performed asynchronously, no thread is blocked while it runs.
+ * SST is obtained by {@link AsyncSSTRetrievalStrategy}, blocking {@link SSTRetrievalStrategy} runs on an executor.
+ * Requests are replayed using {@link HttpAsyncRequestProducer#resetRequest()}, so the request producer must be
+ * repeatable to be authenticated.
+ */
+public class GoodDataHttpAsyncClient implements HttpAsyncClient {
+
+    private static final String TOKEN_URL = "/gdc/account/token";
+    private static final int DEFAULT_MAX_AUTH_ATTEMPTS = 3;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final HttpAsyncClient httpClient;
+
+    private final AsyncSSTRetrievalStrategy sstStrategy;
+
+    /**
+     * Context shared by all requests executed without explicit context, see {@link GoodDataHttpClient}.
+     */
+    private final HttpContext context;
+
+    /**
+     * Guards {@link #lastAuthentication}, never held during network communication.
+     */
+    private final Lock authLock = new ReentrantLock();
+
+    private volatile int authEpoch;
+
+    private Authentication lastAuthentication;
+
+    private volatile int maxAuthAttempts = DEFAULT_MAX_AUTH_ATTEMPTS;
+
+    /**
+     * Construct object.
+     * @param httpClient asynchronous HTTP client, must be started by the caller
+     * @param sstStrategy asynchronous super-secure token (SST) obtaining strategy
+     */
+    public GoodDataHttpAsyncClient(final HttpAsyncClient httpClient, final AsyncSSTRetrievalStrategy sstStrategy) {
+        notNull(httpClient, "HTTP client cannot be null");
+        notNull(sstStrategy, "SST strategy cannot be null");
+        this.httpClient = httpClient;
+        this.sstStrategy = sstStrategy;
+        context = new BasicHttpContext();
+        context.setAttribute(HttpClientContext.COOKIE_STORE, new GoodDataCookieStore());
+    }
+
+    /**
+     * Construct object.
+     * @param httpClient asynchronous HTTP client, must be started by the caller
+     * @param sstStrategy super-secure token (SST) obtaining strategy
+     * @param sstExecutor executor running the blocking SST strategy
+     */
+    public GoodDataHttpAsyncClient(final HttpAsyncClient httpClient, final SSTRetrievalStrategy sstStrategy,
+                                   final Executor sstExecutor) {
+        this(httpClient, new AsyncSSTRetrievalStrategyAdapter(sstStrategy, sstExecutor));
+    }
+
+    /**
+     * Construct object, the blocking SST strategy runs in daemon threads created on demand.
+     * @param httpClient asynchronous HTTP client, must be started by the caller
+     * @param sstStrategy super-secure token (SST) obtaining strategy
+     */
+    public GoodDataHttpAsyncClient(final HttpAsyncClient httpClient, final SSTRetrievalStrategy sstStrategy) {
+        this(httpClient, sstStrategy, createSstExecutor());
+    }
+
+    private static ExecutorService createSstExecutor() {
+        final AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "gooddata-sst-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Set maximal number of authentications (TT refresh or SST login) performed or awaited for a single request.
+     * When the request is still challenged after that, synthetic 401 response is returned. Default is 3.
+     * @param maxAuthAttempts maximal number of authentication attempts per request, must be positive
+     */
+    public void setMaxAuthAttempts(final int maxAuthAttempts) {
+        isTrue(maxAuthAttempts > 0, "Max auth attempts must be positive");
+        this.maxAuthAttempts = maxAuthAttempts;
+    }
+
+    @Override
+    public <T> Future<T> execute(final HttpAsyncRequestProducer requestProducer,
+                                 final HttpAsyncResponseConsumer<T> responseConsumer, final HttpContext context,
+                                 final FutureCallback<T> callback) {
+        final Exchange<T> exchange = new Exchange<T>(requestProducer, responseConsumer,
+                context != null ? context : createRequestContext(), callback);
+        exchange.send();
+        return exchange.future;
+    }
+
+    @Override
+    public <T> Future<T> execute(final HttpAsyncRequestProducer requestProducer,
+                                 final HttpAsyncResponseConsumer<T> responseConsumer, final FutureCallback<T> callback) {
+        return execute(requestProducer, responseConsumer, null, callback);
+    }
+
+    @Override
+    public Future<HttpResponse> execute(final HttpHost target, final HttpRequest request, final HttpContext context,
+                                        final FutureCallback<HttpResponse> callback) {
+        return execute(HttpAsyncMethods.create(target, request), HttpAsyncMethods.createConsumer(), context, callback);
+    }
+
+    @Override
+    public Future<HttpResponse> execute(final HttpHost target, final HttpRequest request,
+                                        final FutureCallback<HttpResponse> callback) {
+        return execute(target, request, null, callback);
+    }
+
+    @Override
+    public Future<HttpResponse> execute(final HttpUriRequest request, final HttpContext context,
+                                        final FutureCallback<HttpResponse> callback) {
+        return execute(HttpAsyncMethods.create(request), HttpAsyncMethods.createConsumer(), context, callback);
+    }
+
+    @Override
+    public Future<HttpResponse> execute(final HttpUriRequest request, final FutureCallback<HttpResponse> callback) {
+        return execute(request, null, callback);
+    }
+
+    private HttpContext createRequestContext() {
+        return new BasicHttpContext(context);
+    }
+
+    /**
+     * Authenticate unless somebody else already did since the given epoch, see
+     * {@link GoodDataHttpClient}. The callback is notified once the authentication of the epoch finishes.
+     */
+    private void authenticate(final GoodDataChallengeType challenge, final HttpHost httpHost, final HttpContext context,
+                              final int epoch, final FutureCallback<Void> callback) {
+        final Authentication authentication;
+        final boolean leader;
+        authLock.lock();
+        try {
+            if (lastAuthentication != null && lastAuthentication.epoch == epoch) {
+                authentication = lastAuthentication;
+                leader = false;
+            } else if (epoch != authEpoch) {
+                authentication = null;
+                leader = false;
+            } else {
+                authentication = new Authentication(epoch);
+                lastAuthentication = authentication;
+                leader = true;
+            }
+        } finally {
+            authLock.unlock();
+        }
+
+        if (authentication == null) {
+            //somebody has authenticated since the request was sent
+            callback.completed(null);
+            return;
+        }
+        authentication.addCallback(callback);
+        if (leader) {
+            final FutureCallback<Void> done = new FutureCallback<Void>() {
+                @Override
+                public void completed(final Void result) {
+                    authEpoch = epoch + 1;
+                    authentication.completed();
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    authEpoch = epoch + 1;
+                    authentication.failed(ex);
+                }
+
+                @Override
+                public void cancelled() {
+                    failed(new GoodDataAuthException("Authentication cancelled"));
+                }
+            };
+            if (challenge == GoodDataChallengeType.TT) {
+                refreshTt(httpHost, new FutureCallback<Boolean>() {
+                    @Override
+                    public void completed(final Boolean refreshed) {
+                        if (refreshed) {
+                            done.completed(null);
+                        } else {
+                            obtainSst(httpHost, context, done);
+                        }
+                    }
+
+                    @Override
+                    public void failed(final Exception ex) {
+                        done.failed(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        done.cancelled();
+                    }
+                });
+            } else {
+                obtainSst(httpHost, context, done);
+            }
+        }
+    }
+
+    private void obtainSst(final HttpHost httpHost, final HttpContext context, final FutureCallback<Void> callback) {
+        sstStrategy.obtainSst(new FutureCallback<String>() {
+            @Override
+            public void completed(final String sst) {
+                CookieUtils.replaceSst(sst, context, httpHost.getHostName());
+                refreshTt(httpHost, new FutureCallback<Boolean>() {
+                    @Override
+                    public void completed(final Boolean refreshed) {
+                        if (refreshed) {
+                            callback.completed(null);
+                        } else {
+                            callback.failed(new GoodDataAuthException("Unable to obtain TT after successfully obtained SST"));
+                        }
+                    }
+
+                    @Override
+                    public void failed(final Exception ex) {
+                        callback.failed(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        callback.cancelled();
+                    }
+                });
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                callback.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+        });
+    }
+
+    /**
+     * Refresh temporary token, the callback gets <code>false</code> when TT cannot be refreshed (SST expired).
+     */
+    private void refreshTt(final HttpHost httpHost, final FutureCallback<Boolean> callback) {
+        log.debug("Obtaining TT");
+        httpClient.execute(httpHost, new HttpGet(TOKEN_URL), createRequestContext(), new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(final HttpResponse response) {
+                final int status = response.getStatusLine().getStatusCode();
+                switch (status) {
+                    case HttpStatus.SC_OK:
+                        callback.completed(true);
+                        break;
+                    case HttpStatus.SC_UNAUTHORIZED:
+                        callback.completed(false);
+                        break;
+                    default:
+                        callback.failed(new GoodDataAuthException("Unable to obtain TT, HTTP status: " + status));
+                }
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                callback.failed(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+        });
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Authentication of a single auth epoch, its outcome is shared by all requests challenged in that epoch.
+     */
+    private static class Authentication {
+        private final int epoch;
+        private final Lock lock = new ReentrantLock();
+        private final List<FutureCallback<Void>> callbacks = new ArrayList<FutureCallback<Void>>();
+        private boolean done;
+        private Exception failure;
+
+        Authentication(final int epoch) {
+            this.epoch = epoch;
+        }
+
+        void addCallback(final FutureCallback<Void> callback) {
+            lock.lock();
+            try {
+                if (!done) {
+                    callbacks.add(callback);
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            notify(callback);
+        }
+
+        void completed() {
+            finish(null);
+        }
+
+        void failed(final Exception failure) {
+            finish(failure);
+        }
+
+        private void finish(final Exception failure) {
+            final List<FutureCallback<Void>> waiting;
+            lock.lock();
+            try {
+                this.failure = failure;
+                done = true;
+                waiting = new ArrayList<FutureCallback<Void>>(callbacks);
+                callbacks.clear();
+            } finally {
+                lock.unlock();
+            }
+            for (FutureCallback<Void> callback : waiting) {
+                notify(callback);
+            }
+        }
+
+        private void notify(final FutureCallback<Void> callback) {
+            if (failure == null) {
+                callback.completed(null);
+            } else {
+                callback.failed(failure);
+            }
+        }
+    }
+
+    /**
+     * Single request with all its replays.
+     */
+    private class Exchange<T> {
+        private final HttpAsyncRequestProducer requestProducer;
+        private final HttpAsyncResponseConsumer<T> responseConsumer;
+        private final HttpContext context;
+        private final ChainedFuture<T> future;
+        private final int maxAttempts = maxAuthAttempts;
+        private int attempt;
+
+        Exchange(final HttpAsyncRequestProducer requestProducer, final HttpAsyncResponseConsumer<T> responseConsumer,
+                 final HttpContext context, final FutureCallback<T> callback) {
+            this.requestProducer = requestProducer;
+            this.responseConsumer = responseConsumer;
+            this.context = context;
+            future = new ChainedFuture<T>(callback);
+        }
+
+        void send() {
+            if (future.isDone()) {
+                close();
+                return;
+            }
+            final int epoch = authEpoch;
+            final ChallengeConsumer<T> consumer = new ChallengeConsumer<T>(responseConsumer);
+            future.setCurrent(httpClient.execute(new ReplayableProducer(requestProducer), consumer, context, new FutureCallback<T>() {
+                @Override
+                public void completed(final T result) {
+                    if (consumer.challenge == GoodDataChallengeType.UNKNOWN) {
+                        future.completed(result);
+                        close();
+                    } else {
+                        challenged(consumer.challenge, epoch);
+                    }
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    future.failed(ex);
+                    close();
+                }
+
+                @Override
+                public void cancelled() {
+                    future.cancel();
+                    close();
+                }
+            }));
+        }
+
+        private void challenged(final GoodDataChallengeType challenge, final int epoch) {
+            if (attempt >= maxAttempts) {
+                unauthorized("Unable to authenticate after " + maxAttempts + " attempts");
+                return;
+            }
+            if (!requestProducer.isRepeatable()) {
+                unauthorized("Unable to replay non-repeatable request after authentication");
+                return;
+            }
+            attempt++;
+            authenticate(challenge, requestProducer.getTarget(), context, epoch, new FutureCallback<Void>() {
+                @Override
+                public void completed(final Void result) {
+                    try {
+                        requestProducer.resetRequest();
+                    } catch (IOException e) {
+                        failed(e);
+                        return;
+                    }
+                    send();
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    if (ex instanceof GoodDataAuthException) {
+                        unauthorized(ex.getMessage());
+                    } else {
+                        future.failed(ex);
+                        close();
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    future.cancel();
+                    close();
+                }
+            });
+        }
+
+        /**
+         * Complete the request with synthetic 401 response passed through the response consumer.
+         */
+        private void unauthorized(final String reason) {
+            try {
+                responseConsumer.responseReceived(new BasicHttpResponse(
+                        new BasicStatusLine(HttpVersion.HTTP_1_1, HttpStatus.SC_UNAUTHORIZED, reason)));
+                responseConsumer.responseCompleted(context);
+                final Exception ex = responseConsumer.getException();
+                if (ex == null) {
+                    future.completed(responseConsumer.getResult());
+                } else {
+                    future.failed(ex);
+                }
+            } catch (Exception e) {
+                future.failed(e);
+            } finally {
+                close();
+            }
+        }
+
+        private void close() {
+            closeQuietly(requestProducer);
+            closeQuietly(responseConsumer);
+        }
+    }
+
+    /**
+     * Passes everything to the original producer but closing, so that it can be reset and replayed.
+     */
+    private static class ReplayableProducer implements HttpAsyncRequestProducer {
+        private final HttpAsyncRequestProducer producer;
+
+        ReplayableProducer(final HttpAsyncRequestProducer producer) {
+            this.producer = producer;
+        }
+
+        @Override
+        public HttpHost getTarget() {
+            return producer.getTarget();
+        }
+
+        @Override
+        public HttpRequest generateRequest() throws IOException, HttpException {
+            return producer.generateRequest();
+        }
+
+        @Override
+        public void produceContent(final ContentEncoder encoder, final IOControl ioctrl) throws IOException {
+            producer.produceContent(encoder, ioctrl);
+        }
+
+        @Override
+        public void requestCompleted(final HttpContext context) {
+            producer.requestCompleted(context);
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            producer.failed(ex);
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return producer.isRepeatable();
+        }
+
+        @Override
+        public void resetRequest() throws IOException {
+            producer.resetRequest();
+        }
+
+        @Override
+        public void close() {
+            // closed when the exchange finishes
+        }
+    }
+
+    /**
+     * Discards GoodData challenge responses, passes other responses to the original consumer.
+     */
+    private static class ChallengeConsumer<T> implements HttpAsyncResponseConsumer<T> {
+        private final HttpAsyncResponseConsumer<T> consumer;
+        private volatile GoodDataChallengeType challenge = GoodDataChallengeType.UNKNOWN;
+        private volatile boolean completed;
+
+        ChallengeConsumer(final HttpAsyncResponseConsumer<T> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void responseReceived(final HttpResponse response) throws IOException, HttpException {
+            challenge = GoodDataChallengeType.identify(response);
+            if (challenge == GoodDataChallengeType.UNKNOWN) {
+                consumer.responseReceived(response);
+            }
+        }
+
+        @Override
+        public void consumeContent(final ContentDecoder decoder, final IOControl ioctrl) throws IOException {
+            if (challenge == GoodDataChallengeType.UNKNOWN) {
+                consumer.consumeContent(decoder, ioctrl);
+                return;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(1024);
+            while (decoder.read(buffer) > 0) {
+                buffer.clear();
+            }
+        }
+
+        @Override
+        public void responseCompleted(final HttpContext context) {
+            if (challenge == GoodDataChallengeType.UNKNOWN) {
+                consumer.responseCompleted(context);
+            } else {
+                completed = true;
+            }
+        }
+
+        @Override
+        public void failed(final Exception ex) {
+            consumer.failed(ex);
+        }
+
+        @Override
+        public Exception getException() {
+            return consumer.getException();
+        }
+
+        @Override
+        public T getResult() {
+            return challenge == GoodDataChallengeType.UNKNOWN ? consumer.getResult() : null;
+        }
+
+        @Override
+        public boolean isDone() {
+            return challenge == GoodDataChallengeType.UNKNOWN ? consumer.isDone() : completed;
+        }
+
+        @Override
+        public boolean cancel() {
+            return consumer.cancel();
+        }
+
+        @Override
+        public void close() {
+            // closed when the exchange finishes
+        }
+    }
+}
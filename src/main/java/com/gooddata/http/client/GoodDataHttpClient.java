@@ -7,11 +7,14 @@ package com.gooddata.http.client;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
-import org.apache.http.auth.AUTH;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.ResponseHandler;
@@ -19,21 +22,40 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.MalformedCookieException;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.message.BasicHttpResponse;
-import org.apache.http.message.BasicStatusLine;
+import org.apache.http.message.BasicHeader;
 import org.apache.http.params.HttpParams;
+import org.apache.http.pool.ConnPoolControl;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.apache.commons.lang.Validate.isTrue;
+import static org.apache.commons.lang.Validate.notNull;
 
 /**
  * <p>Http client with ability to handle GoodData authentication.</p>
@@ -75,17 +97,52 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * getProject.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
  * HttpResponse getProjectResponse = client.execute(httpHost, getProject);
  * </pre>
+ *
+ * <h3>Concurrency</h3>
+ * Requests are sent without any locking. Every authentication (TT refresh or SST login) starts a new
+ * <em>auth epoch</em>. Only the first thread which received a GoodData challenge for a request sent in the current
+ * epoch performs the authentication (single-flight), other threads challenged in the same epoch park until it
+ * finishes and share its outcome. Threads challenged in an already finished epoch just replay their request.
+ * No monitor is held while waiting or during network communication and the default cookie store is lock-free,
+ * so the client does not pin carrier threads when executed in virtual threads.
  */
 public class GoodDataHttpClient implements HttpClient {
 
     private static final String TOKEN_URL = "/gdc/account/token";
-    public static final String COOKIE_GDC_AUTH_TT = "cookie=GDCAuthTT";
-    public static final String COOKIE_GDC_AUTH_SST = "cookie=GDCAuthSST";
+    private static final int DEFAULT_MAX_AUTH_ATTEMPTS = 3;
+    private static final long DEFAULT_AUTH_BACKOFF_MILLIS = 100;
+    private static final long MAX_AUTH_BACKOFF_MILLIS = 5000;
+    private static final long DEFAULT_TT_REFRESH_AHEAD_MILLIS = 60 * 1000;
+    private static final long DEFAULT_ENTITY_MEMORY_THRESHOLD = 256 * 1024;
+    private static final long DEFAULT_TOKEN_STORE_LEASE_MILLIS = 30 * 1000;
+    private static final long TOKEN_STORE_POLL_MILLIS = 50;
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final String LOGIN_CIRCUIT_OPEN = "Login circuit breaker open: ";
+    private static final String MBEAN_DOMAIN = "com.gooddata.http.client";
+    private static final AtomicInteger MBEAN_IDS = new AtomicInteger();
+    public static final String COOKIE_GDC_AUTH_TT = GoodDataChallengeType.COOKIE_GDC_AUTH_TT;
+    public static final String COOKIE_GDC_AUTH_SST = GoodDataChallengeType.COOKIE_GDC_AUTH_SST;
+    /**
+     * @deprecated requests are no longer guarded by a read-write lock, see auth epoch
+     */
+    @Deprecated
     public static final String LOCK_RW = "gooddata.lock.rw";
+    /**
+     * @deprecated authentication lock is no longer stored in HTTP context
+     */
+    @Deprecated
     public static final String LOCK_AUTH = "gooddata.lock.auth";
 
-    private enum GoodDataChallengeType {
-        SST, TT, UNKNOWN
+    /**
+     * Authentication of a single auth epoch, its outcome is shared by all threads challenged in that epoch.
+     */
+    private static class Authentication extends FutureTask<Void> {
+        private final int epoch;
+
+        Authentication(final int epoch, final Callable<Void> callable) {
+            super(callable);
+            this.epoch = epoch;
+        }
     }
 
     private final Log log = LogFactory.getLog(getClass());
@@ -94,8 +151,95 @@ public class GoodDataHttpClient implements HttpClient {
 
     private final SSTRetrievalStrategy sstStrategy;
 
+    /**
+     * Context shared by all requests executed without explicit context, holds the cookie store with GoodData
+     * tokens. It is never modified after construction, every request gets its own child context.
+     */
     private final HttpContext context;
 
+    /**
+     * Guards {@link #lastAuthentication}, never held during network communication.
+     */
+    private final ReentrantLock authLock = new ReentrantLock();
+
+    /**
+     * Number of threads waiting for authentication performed by other thread.
+     */
+    private final AtomicInteger authWaiters = new AtomicInteger();
+
+    /**
+     * Auth epoch, incremented after each authentication attempt. Read without locking by every request,
+     * written only by the thread running the authentication.
+     */
+    private volatile int authEpoch;
+
+    private Authentication lastAuthentication;
+
+    private volatile int maxAuthAttempts = DEFAULT_MAX_AUTH_ATTEMPTS;
+
+    private volatile long authBackoffMillis = DEFAULT_AUTH_BACKOFF_MILLIS;
+
+    private final LoginCircuitBreaker loginCircuitBreaker = new LoginCircuitBreaker();
+
+    private volatile RequestRateLimiter rateLimiter;
+
+    private volatile AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private volatile RetryPolicy retryPolicy;
+
+    private volatile ScheduledExecutorService ttRefreshScheduler;
+
+    private volatile long ttLifetimeMillis = -1;
+
+    private volatile long ttRefreshAheadMillis = DEFAULT_TT_REFRESH_AHEAD_MILLIS;
+
+    private volatile boolean entityReplayEnabled = true;
+
+    private volatile long entityMemoryThreshold = DEFAULT_ENTITY_MEMORY_THRESHOLD;
+
+    private volatile long expectContinueThreshold = -1;
+
+    private final AtomicReference<ScheduledFuture<?>> scheduledTtRefresh = new AtomicReference<ScheduledFuture<?>>();
+
+    /**
+     * Host the SST was obtained for most recently.
+     */
+    private volatile HttpHost sstHost;
+
+    /**
+     * HTTP client used for TT refresh, null to use the wrapped one.
+     */
+    private volatile HttpClient authHttpClient;
+
+    private volatile TokenCache tokenCache;
+
+    private volatile TokenStore tokenStore;
+
+    private volatile long tokenStoreLeaseMillis = DEFAULT_TOKEN_STORE_LEASE_MILLIS;
+
+    private volatile MetricsListener metricsListener = MetricsListener.NOOP;
+
+    /**
+     * Statistics exposed by JMX, null unless the MBean is registered.
+     */
+    private volatile ClientStatistics statistics;
+
+    private volatile ConnPoolControl<?> connectionPool;
+
+    /**
+     * Guards the MBean registration.
+     */
+    private final Lock mbeanLock = new ReentrantLock();
+
+    private MBeanServer mbeanServer;
+
+    private ObjectName mbeanName;
+
+    /**
+     * Tokens obtained most recently, null until SST is obtained or loaded from the token cache.
+     */
+    private final AtomicReference<GoodDataTokens> tokens = new AtomicReference<GoodDataTokens>();
+
     /**
      * Construct object.
      * @param httpClient Http client
@@ -105,14 +249,17 @@ public class GoodDataHttpClient implements HttpClient {
         this.httpClient = httpClient;
         this.sstStrategy = sstStrategy;
         context = new BasicHttpContext();
-        final CookieStore cookieStore = new BasicCookieStore();
+        final CookieStore cookieStore = new GoodDataCookieStore();
         context.setAttribute(HttpClientContext.COOKIE_STORE, cookieStore);
 
-        //this lock is used to ensure that no threads will try to send requests while authentication is performed
-        context.setAttribute(LOCK_RW, new ReentrantReadWriteLock());
-
-        //this lock guards that only one thread enters the authentication (obtaining TT/SST) section
-        context.setAttribute(LOCK_AUTH, new ReentrantLock());
+        if (sstStrategy instanceof RenewingSSTRetrievalStrategy) {
+            ((RenewingSSTRetrievalStrategy) sstStrategy).setListener(new SSTRenewalListener() {
+                @Override
+                public void sstRenewed(final String sst) {
+                    installRenewedSst(sst);
+                }
+            });
+        }
     }
 
     /**
@@ -123,71 +270,680 @@ public class GoodDataHttpClient implements HttpClient {
         this(HttpClientBuilder.create().build(), sstStrategy);
     }
 
-    private GoodDataChallengeType identifyGoodDataChallenge(final HttpResponse response) {
-        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
-            final Header[] headers = response.getHeaders(AUTH.WWW_AUTH);
-            if (headers != null) {
-                for (final Header header : headers) {
-                    final String challenge = header.getValue();
-                    if (challenge.contains(COOKIE_GDC_AUTH_SST)) {
-                        return GoodDataChallengeType.SST;
-                    } else if (challenge.contains(COOKIE_GDC_AUTH_TT)) {
-                        return GoodDataChallengeType.TT;
+    /**
+     * Set maximal number of authentications (TT refresh or SST login) performed or awaited for a single request.
+     * When the request is still challenged after that, synthetic 401 response is returned. Default is 3.
+     * @param maxAuthAttempts maximal number of authentication attempts per request, must be positive
+     */
+    public void setMaxAuthAttempts(final int maxAuthAttempts) {
+        isTrue(maxAuthAttempts > 0, "Max auth attempts must be positive");
+        this.maxAuthAttempts = maxAuthAttempts;
+    }
+
+    /**
+     * Set delay before the second authentication attempt of a request, doubled with every further attempt
+     * (up to 5 seconds). Default is 100ms.
+     * @param authBackoffMillis initial backoff in milliseconds, zero disables backoff
+     */
+    public void setAuthBackoffMillis(final long authBackoffMillis) {
+        isTrue(authBackoffMillis >= 0, "Auth backoff cannot be negative");
+        this.authBackoffMillis = authBackoffMillis;
+    }
+
+    /**
+     * Enable circuit breaker of SST retrieval. When SST cannot be obtained (e.g. login service is down or credentials
+     * were revoked), SST retrieval is not attempted again for the initial backoff, doubled with every consecutive
+     * failure and randomized between half and full value. Meanwhile requests get synthetic 401 response with
+     * the reason of the last failure and <code>Retry-After</code> header without being sent. Disabled by default.
+     * @param initialBackoffMillis backoff after the first failure in milliseconds, zero disables the breaker
+     * @param maxBackoffMillis maximal backoff in milliseconds
+     */
+    public void setLoginCircuitBreaker(final long initialBackoffMillis, final long maxBackoffMillis) {
+        loginCircuitBreaker.setBackoff(initialBackoffMillis, maxBackoffMillis);
+    }
+
+    /**
+     * Enable proactive TT refresh. After every successful TT refresh the next one is scheduled shortly before
+     * the TT expires, so that requests are not rejected because of the expired TT. TT lifetime is taken from
+     * the expiration of the TT cookie or from {@link #setTtLifetimeMillis(long)} when the cookie has none.
+     * Refreshed tokens are stored to the client's own context only, requests executed with a custom context
+     * are not affected.
+     * @param ttRefreshScheduler scheduler running the refresh (owned by the caller),
+     *                           <code>null</code> disables proactive refresh
+     */
+    public void setTtRefreshScheduler(final ScheduledExecutorService ttRefreshScheduler) {
+        this.ttRefreshScheduler = ttRefreshScheduler;
+        if (ttRefreshScheduler == null) {
+            final ScheduledFuture<?> scheduled = scheduledTtRefresh.getAndSet(null);
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Set TT lifetime used for proactive TT refresh when the TT cookie has no expiration.
+     * @param ttLifetimeMillis TT lifetime in milliseconds, negative value means unknown lifetime
+     */
+    public void setTtLifetimeMillis(final long ttLifetimeMillis) {
+        this.ttLifetimeMillis = ttLifetimeMillis;
+    }
+
+    /**
+     * Set how long before the TT expiration the proactive refresh runs, at most half of the TT lifetime is used.
+     * Default is 60 seconds.
+     * @param ttRefreshAheadMillis time in milliseconds
+     */
+    public void setTtRefreshAheadMillis(final long ttRefreshAheadMillis) {
+        isTrue(ttRefreshAheadMillis >= 0, "TT refresh ahead cannot be negative");
+        this.ttRefreshAheadMillis = ttRefreshAheadMillis;
+    }
+
+    /**
+     * Set whether content of non-repeatable request entities is recorded while it is sent, so that the request
+     * can be replayed after authentication or retried. Recording copies every sent byte and spills entities above
+     * {@link #setEntityMemoryThreshold(long)} to a temporary file. Without it a request with non-repeatable entity
+     * cannot be replayed once its content was sent. Enabled by default.
+     * @param entityReplayEnabled whether to record non-repeatable entities
+     */
+    public void setEntityReplayEnabled(final boolean entityReplayEnabled) {
+        this.entityReplayEnabled = entityReplayEnabled;
+    }
+
+    /**
+     * Set how many bytes of a non-repeatable request entity are buffered in memory to be replayed after
+     * authentication, larger entities are buffered in a temporary file. Default is 256kB. Every non-repeatable
+     * entity is recorded, so large uploads cost a copy to the temporary file; use repeatable entities
+     * (e.g. <code>FileEntity</code>) or {@link #setEntityReplayEnabled(boolean)} to avoid it.
+     * @param entityMemoryThreshold number of bytes
+     */
+    public void setEntityMemoryThreshold(final long entityMemoryThreshold) {
+        isTrue(entityMemoryThreshold >= 0, "Entity memory threshold cannot be negative");
+        this.entityMemoryThreshold = entityMemoryThreshold;
+    }
+
+    /**
+     * Send <code>Expect: 100-continue</code> with request entities of the given size or larger (and with entities
+     * of unknown size), so that GoodData challenge is received and handled before the entity is streamed.
+     * Disabled by default.
+     * @param expectContinueThreshold entity size in bytes, negative value disables expect-continue handshake
+     */
+    public void setExpectContinueThreshold(final long expectContinueThreshold) {
+        this.expectContinueThreshold = expectContinueThreshold;
+    }
+
+    /**
+     * Set client-side rate limiter. Every request (including replays after authentication) waits for a permit
+     * before it is sent, requests rejected by the limiter get synthetic 429 response with <code>Retry-After</code>
+     * header. Authentication requests are not limited. Disabled by default.
+     * @param rateLimiter rate limiter, <code>null</code> disables rate limiting
+     */
+    public void setRateLimiter(final RequestRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Set adaptive limit of requests in flight. Every request (including replays after authentication) waits
+     * for the limit before it is sent, requests rejected by the limiter get synthetic 503 response.
+     * A request is in flight until its response entity is consumed or closed, so the entity must always be consumed.
+     * Authentication requests are not limited. Disabled by default.
+     * @param concurrencyLimiter concurrency limiter, <code>null</code> disables the limit
+     */
+    public void setConcurrencyLimiter(final AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Set retry policy of idempotent requests failed with 502, 503 or 504 response or with I/O error.
+     * Non-repeatable request entities are buffered to be replayed the same way as after authentication.
+     * Disabled by default.
+     * @param retryPolicy retry policy, <code>null</code> disables retries
+     */
+    public void setRetryPolicy(final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Set HTTP client used for TT refresh instead of the wrapped one, e.g. created by {@link AuthHttpClients},
+     * so that TT refresh does not wait for a connection when the pool of the wrapped client is exhausted.
+     * The client must use the cookie store of the HTTP context it is called with (as clients created
+     * by <code>HttpClientBuilder</code> do).
+     * @param authHttpClient HTTP client, <code>null</code> to use the wrapped one
+     */
+    public void setAuthHttpClient(final HttpClient authHttpClient) {
+        this.authHttpClient = authHttpClient;
+    }
+
+    /**
+     * Set persistent token cache. Tokens cached by previous run are loaded immediately and installed into the client's
+     * own context, so that still valid SST and TT are used without logging in. The cache is updated whenever SST
+     * or TT is obtained. Before authenticating, tokens stored to the cache by somebody else are adopted when they
+     * contain valid TT; with {@link SharedTokenCache} the cache is locked during authentication, so that processes
+     * sharing it authenticate one at a time and reuse tokens obtained by the others.
+     * @param tokenCache token cache, <code>null</code> disables caching
+     * @throws IOException unable to read the cache
+     */
+    public void setTokenCache(final TokenCache tokenCache) throws IOException {
+        this.tokenCache = tokenCache;
+        if (tokenCache == null) {
+            return;
+        }
+        final GoodDataTokens cached = tokenCache.load();
+        if (cached != null) {
+            installTokens(cached, context);
+        }
+    }
+
+    /**
+     * Set store of SST shared with clients on other nodes. The store is consulted whenever SST is needed: SST stored
+     * by other client is reused, otherwise the SST is obtained by this client's {@link SSTRetrievalStrategy} while
+     * the store entry is leased by compare-and-set, so that only one client obtains SST at a time.
+     * @param tokenStore token store, <code>null</code> disables sharing
+     */
+    public void setTokenStore(final TokenStore tokenStore) {
+        this.tokenStore = tokenStore;
+    }
+
+    /**
+     * Set how long the token store entry is leased while obtaining SST, other clients take over when the lease
+     * expires. Default is 30 seconds.
+     * @param tokenStoreLeaseMillis lease duration in milliseconds
+     */
+    public void setTokenStoreLeaseMillis(final long tokenStoreLeaseMillis) {
+        isTrue(tokenStoreLeaseMillis > 0, "Token store lease must be positive");
+        this.tokenStoreLeaseMillis = tokenStoreLeaseMillis;
+    }
+
+    /**
+     * Set listener notified about every request, TT refresh and SST retrieval, e.g. {@link HistogramMetricsListener}.
+     * Nothing is measured by default.
+     * @param metricsListener metrics listener, <code>null</code> disables metrics
+     */
+    public void setMetricsListener(final MetricsListener metricsListener) {
+        this.metricsListener = metricsListener != null ? metricsListener : MetricsListener.NOOP;
+    }
+
+    /**
+     * Set connection pool of the wrapped HTTP client (e.g. <code>PoolingHttpClientConnectionManager</code>)
+     * to expose its statistics by JMX. Connection manager of the wrapped client is used when it is a pool.
+     * @param connectionPool connection pool
+     */
+    public void setConnectionPool(final ConnPoolControl<?> connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Register {@link GoodDataHttpClientMXBean} of this client to the platform MBean server under name
+     * <code>com.gooddata.http.client:type=GoodDataHttpClient,id=&lt;sequence number&gt;</code>.
+     * @return name of the registered MBean
+     * @throws JMException registration failed
+     */
+    public ObjectName registerMBean() throws JMException {
+        return registerMBean(ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName(MBEAN_DOMAIN + ":type=GoodDataHttpClient,id=" + MBEAN_IDS.incrementAndGet()));
+    }
+
+    /**
+     * Register {@link GoodDataHttpClientMXBean} of this client. Request statistics are collected only while
+     * the MBean is registered.
+     * @param server MBean server
+     * @param name MBean name
+     * @return name of the registered MBean
+     * @throws JMException registration failed
+     * @throws IllegalStateException MBean of this client is already registered
+     */
+    public ObjectName registerMBean(final MBeanServer server, final ObjectName name) throws JMException {
+        notNull(server, "MBean server cannot be null");
+        notNull(name, "MBean name cannot be null");
+        mbeanLock.lock();
+        try {
+            if (mbeanServer != null) {
+                throw new IllegalStateException("MBean already registered as " + mbeanName);
+            }
+            final ClientStatistics clientStatistics = new ClientStatistics(new ClientStatistics.Operations() {
+                @Override
+                public void forceTtRefresh() throws IOException {
+                    final HttpHost httpHost = sstHost;
+                    if (httpHost == null) {
+                        throw new IllegalStateException("Client has not authenticated yet");
                     }
+                    authenticate(GoodDataChallengeType.TT, httpHost, context, authEpoch);
+                }
+
+                @Override
+                public void invalidateSst() {
+                    GoodDataHttpClient.this.invalidateSst();
+                }
+
+                @Override
+                public int getAuthWaitingThreads() {
+                    return authWaiters.get() + authLock.getQueueLength();
                 }
+
+                @Override
+                public ConnPoolControl<?> getConnectionPool() {
+                    return findConnectionPool();
+                }
+
+                @Override
+                public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+                    return concurrencyLimiter;
+                }
+            });
+            mbeanName = server.registerMBean(new StandardMBean(clientStatistics, GoodDataHttpClientMXBean.class, true),
+                    name).getObjectName();
+            mbeanServer = server;
+            statistics = clientStatistics;
+            return mbeanName;
+        } finally {
+            mbeanLock.unlock();
+        }
+    }
+
+    /**
+     * Unregister the MBean registered by {@link #registerMBean()}, does nothing when not registered.
+     * @throws JMException unregistration failed
+     */
+    public void unregisterMBean() throws JMException {
+        mbeanLock.lock();
+        try {
+            if (mbeanServer == null) {
+                return;
             }
+            statistics = null;
+            try {
+                mbeanServer.unregisterMBean(mbeanName);
+            } finally {
+                mbeanServer = null;
+                mbeanName = null;
+            }
+        } finally {
+            mbeanLock.unlock();
         }
-        return GoodDataChallengeType.UNKNOWN;
     }
 
-    private HttpResponse handleResponse(final HttpHost httpHost, final HttpRequest request, final HttpResponse originalResponse, final HttpContext context) throws IOException {
-        final GoodDataChallengeType challenge = identifyGoodDataChallenge(originalResponse);
-        if (challenge == GoodDataChallengeType.UNKNOWN) {
-            return originalResponse;
+    // getConnectionManager() is deprecated, but it is the only way to find the pool of a client built by the caller
+    @SuppressWarnings("deprecation")
+    private ConnPoolControl<?> findConnectionPool() {
+        if (connectionPool != null) {
+            return connectionPool;
+        }
+        try {
+            final Object connectionManager = httpClient.getConnectionManager();
+            return connectionManager instanceof ConnPoolControl ? (ConnPoolControl<?>) connectionManager : null;
+        } catch (UnsupportedOperationException e) {
+            return null;
         }
-        EntityUtils.consume(originalResponse.getEntity());
+    }
 
-        final Lock authLock = (Lock) context.getAttribute(LOCK_AUTH);
-        final boolean entered = authLock != null ? authLock.tryLock() : true;
+    /**
+     * Drop the current SST, so that the next authentication obtains new one.
+     */
+    private void invalidateSst() {
+        final HttpHost httpHost = sstHost;
+        if (httpHost == null) {
+            return;
+        }
+        log.info("Invalidating SST");
+        CookieUtils.removeSst(context, httpHost.getHostName());
+    }
 
-        if (entered) {
+    /**
+     * Create lightweight per-request context inheriting the shared one, so that attributes set by the HTTP client
+     * (route, target host, redirects, ...) are not shared between requests and threads.
+     * @return new context
+     */
+    private HttpContext createRequestContext() {
+        return new BasicHttpContext(context);
+    }
+
+    private HttpResponse createUnauthorizedResponse(final HttpResponse originalResponse, final String reason) {
+        return new SyntheticHttpResponse(originalResponse.getProtocolVersion(), HttpStatus.SC_UNAUTHORIZED,
+                reason);
+    }
+
+    /**
+     * Create synthetic 401 response for request rejected without being sent because the login circuit is open.
+     * @param remainingMillis time until the circuit closes
+     */
+    private HttpResponse createCircuitOpenResponse(final HttpRequest request, final String reason,
+                                                   final long remainingMillis) {
+        final HttpResponse response = new SyntheticHttpResponse(request.getProtocolVersion(),
+                HttpStatus.SC_UNAUTHORIZED, LOGIN_CIRCUIT_OPEN + reason);
+        response.addHeader(HttpHeaders.RETRY_AFTER, String.valueOf((remainingMillis + 999) / 1000));
+        return response;
+    }
+
+    /**
+     * Wait for a permit of the rate limiter.
+     * @return synthetic 429 response when the request was rejected by the limiter, null when it can be sent
+     */
+    private HttpResponse acquirePermit(final RequestRateLimiter limiter, final HttpHost target,
+                                       final HttpRequest request) throws InterruptedIOException {
+        final long wait = limiter.reserve(target, request.getRequestLine().getUri(), System.nanoTime());
+        if (wait < 0) {
+            final HttpResponse response = new SyntheticHttpResponse(request.getProtocolVersion(),
+                    SC_TOO_MANY_REQUESTS, "Client rate limit exceeded");
+            response.addHeader(HttpHeaders.RETRY_AFTER, String.valueOf(TimeUnit.NANOSECONDS.toSeconds(-wait - 1) + 1));
+            return response;
+        }
+        if (wait > 0) {
             try {
-                //only one thread requiring authentication will get here.
-                final ReadWriteLock rwLock = (ReadWriteLock) context.getAttribute(LOCK_RW);
-                Lock writeLock = null;
-                if (rwLock != null) {
-                    writeLock = rwLock.writeLock();
-                    writeLock.lock();
-                }
-                boolean doSST = true;
-                try {
-                    if (challenge == GoodDataChallengeType.TT) {
-                        if (this.refreshTt(httpHost)) {
-                            doSST = false;
-                        }
-                    }
-                    if (doSST) {
-                        final String sst = sstStrategy.obtainSst();
-                        CookieUtils.replaceSst(sst, context, httpHost.getHostName());
-                        if (!refreshTt(httpHost)) {
-                            throw new GoodDataAuthException("Unable to obtain TT after successfully obtained SST");
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for rate limiter permit");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Send request holding a slot of the concurrency limiter, the limit adapts to its round-trip time and status.
+     * The slot is held until the response entity is consumed or closed, released immediately when the response
+     * has no entity.
+     */
+    private HttpResponse executeLimited(final AdaptiveConcurrencyLimiter limiter, final HttpHost target,
+                                        final HttpRequest request, final HttpContext context) throws IOException {
+        final long start = System.nanoTime();
+        final HttpResponse response;
+        try {
+            response = httpClient.execute(target, request, context);
+        } catch (SocketTimeoutException e) {
+            final long now = System.nanoTime();
+            limiter.release(now - start, true, now);
+            throw e;
+        } catch (IOException e) {
+            limiter.release();
+            throw e;
+        } catch (RuntimeException e) {
+            limiter.release();
+            throw e;
+        }
+        final int status = response.getStatusLine().getStatusCode();
+        final boolean overloaded = status == SC_TOO_MANY_REQUESTS || status == HttpStatus.SC_SERVICE_UNAVAILABLE;
+        final long now = System.nanoTime();
+        limiter.record(now - start, overloaded, now);
+        final HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            limiter.release();
+        } else {
+            response.setEntity(new ConcurrencyLimitedEntity(entity, limiter));
+        }
+        return response;
+    }
+
+    /**
+     * Wait before the next authentication of the same request, the delay doubles with every attempt.
+     * @param attempt number of authentications already performed for the request
+     */
+    private void backoff(final int attempt) throws InterruptedIOException {
+        final long delay = Math.min(authBackoffMillis << Math.min(attempt - 1, 16), MAX_AUTH_BACKOFF_MILLIS);
+        if (delay <= 0) {
+            return;
+        }
+        log.debug("Authentication attempt " + (attempt + 1) + " delayed by " + delay + "ms");
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for next authentication attempt");
+        }
+    }
+
+    /**
+     * Authenticate unless somebody else already did since the given epoch. The first thread challenged
+     * in the epoch runs the authentication, others wait for it and get the same result. Requests sent after
+     * a failed authentication belong to the next epoch and so they will try to authenticate again.
+     * @param challenge GoodData challenge received
+     * @param httpHost HTTP host
+     * @param context HTTP context
+     * @param epoch auth epoch in which the challenged request was sent
+     * @throws GoodDataAuthException authentication failed
+     */
+    private void authenticate(final GoodDataChallengeType challenge, final HttpHost httpHost, final HttpContext context,
+                              final int epoch) throws IOException {
+        final Authentication authentication;
+        final boolean leader;
+        authLock.lock();
+        try {
+            if (lastAuthentication != null && lastAuthentication.epoch == epoch) {
+                //authentication of this epoch is running or has just finished, share its outcome
+                authentication = lastAuthentication;
+                leader = false;
+            } else if (epoch != authEpoch) {
+                //somebody has authenticated since the request was sent
+                return;
+            } else {
+                authentication = new Authentication(epoch, new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        try {
+                            doAuthenticate(challenge, httpHost, context);
+                        } finally {
+                            authEpoch = epoch + 1;
                         }
+                        return null;
                     }
-                } catch (GoodDataAuthException e) {
-                    return new BasicHttpResponse(new BasicStatusLine(originalResponse.getProtocolVersion(),
-                            HttpStatus.SC_UNAUTHORIZED, e.getMessage()));
-                } finally {
-                    if (writeLock != null) {
-                        writeLock.unlock();
-                    }
+                });
+                lastAuthentication = authentication;
+                leader = true;
+            }
+        } finally {
+            authLock.unlock();
+        }
+
+        if (leader) {
+            authentication.run();
+        } else {
+            authWaiters.incrementAndGet();
+        }
+
+        try {
+            authentication.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for authentication");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new GoodDataAuthException(cause);
+        } finally {
+            if (!leader) {
+                authWaiters.decrementAndGet();
+            }
+        }
+    }
+
+    private void doAuthenticate(final GoodDataChallengeType challenge, final HttpHost httpHost,
+                                final HttpContext context) throws IOException {
+        final TokenCache cache = tokenCache;
+        if (!(cache instanceof SharedTokenCache)) {
+            if (cache == null || !adoptCachedTokens(cache, httpHost, context)) {
+                obtainTokens(challenge, httpHost, context);
+            }
+            return;
+        }
+        final SharedTokenCache sharedCache = (SharedTokenCache) cache;
+        sharedCache.lock();
+        try {
+            if (!adoptCachedTokens(sharedCache, httpHost, context)) {
+                obtainTokens(challenge, httpHost, context);
+            }
+        } finally {
+            sharedCache.unlock();
+        }
+    }
+
+    /**
+     * Install tokens from the token cache, when somebody else (e.g. other process sharing the cache) has stored
+     * a valid TT different from the tokens used by this client.
+     * @return true when the cached tokens were installed and so no authentication is needed
+     */
+    private boolean adoptCachedTokens(final TokenCache cache, final HttpHost httpHost, final HttpContext context) {
+        final GoodDataTokens cached;
+        try {
+            cached = cache.load();
+        } catch (IOException e) {
+            log.warn("Unable to load tokens from the token cache", e);
+            return false;
+        }
+        if (cached == null || !cached.getHost().equals(httpHost) || cached.equals(tokens.get())
+                || !cached.isTtValid(System.currentTimeMillis())) {
+            return false;
+        }
+        installTokens(cached, context);
+        return true;
+    }
+
+    private void obtainTokens(final GoodDataChallengeType challenge, final HttpHost httpHost,
+                              final HttpContext context) throws IOException {
+        if (challenge == GoodDataChallengeType.TT) {
+            if (this.refreshTt(httpHost)) {
+                return;
+            }
+        }
+        final TokenStore store = tokenStore;
+        if (store != null) {
+            obtainSharedTokens(store, httpHost, context);
+            return;
+        }
+        installSst(obtainSst(httpHost), httpHost, context);
+        if (!refreshTt(httpHost)) {
+            throw new GoodDataAuthException("Unable to obtain TT after successfully obtained SST");
+        }
+    }
+
+    /**
+     * Obtain SST from the token store, or by the SST strategy while holding the lease of the store entry,
+     * and refresh TT. SST rejected by the server is never taken from the store again.
+     */
+    private void obtainSharedTokens(final TokenStore store, final HttpHost httpHost, final HttpContext context)
+            throws IOException {
+        final GoodDataTokens current = tokens.get();
+        String rejectedSst = current != null && current.getHost().equals(httpHost) ? current.getSst() : null;
+        while (true) {
+            final TokenStoreEntry entry = acquireSharedSst(store, httpHost, rejectedSst);
+            if (entry.getLeaseExpiration() == 0) {
+                final String sst = entry.getTokens().getSst();
+                log.debug("Using SST from the token store");
+                installSst(sst, httpHost, context);
+                if (refreshTt(httpHost)) {
+                    return;
                 }
+                rejectedSst = sst;
+                continue;
+            }
+            String sst = null;
+            boolean obtained = false;
+            try {
+                sst = obtainSst(httpHost);
+                obtained = true;
             } finally {
-                if (authLock != null) {
-                    authLock.unlock();
+                final GoodDataTokens shared = obtained && sst != null ? new GoodDataTokens(httpHost, sst, null, -1)
+                        : entry.getTokens();
+                try {
+                    if (!store.compareAndSet(entry, entry.withTokens(shared))) {
+                        log.warn("Lease of the token store expired before SST was obtained");
+                    }
+                } catch (IOException e) {
+                    log.warn("Unable to update the token store", e);
                 }
             }
+            installSst(sst, httpHost, context);
+            if (!refreshTt(httpHost)) {
+                throw new GoodDataAuthException("Unable to obtain TT after successfully obtained SST");
+            }
+            return;
         }
-        return this.execute(httpHost, request, context);
+    }
+
+    /**
+     * Wait until no other client obtains SST, then return store entry with usable SST (not leased)
+     * or the entry leased by this client (which has to obtain SST and store it).
+     */
+    private TokenStoreEntry acquireSharedSst(final TokenStore store, final HttpHost httpHost, final String rejectedSst)
+            throws IOException {
+        while (true) {
+            final TokenStoreEntry entry = store.get();
+            final long now = System.currentTimeMillis();
+            if (entry.isLeased(now)) {
+                try {
+                    Thread.sleep(TOKEN_STORE_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for SST from the token store");
+                }
+                continue;
+            }
+            final GoodDataTokens shared = entry.getTokens();
+            if (shared != null && shared.getHost().equals(httpHost) && !shared.getSst().equals(rejectedSst)) {
+                return entry.getLeaseExpiration() == 0 ? entry : entry.withTokens(shared);
+            }
+            final TokenStoreEntry leased = entry.withLease(now + tokenStoreLeaseMillis);
+            if (store.compareAndSet(entry, leased)) {
+                return leased;
+            }
+        }
+    }
+
+    private String obtainSst(final HttpHost httpHost) throws IOException {
+        final String openReason = loginCircuitBreaker.getOpenReason(System.currentTimeMillis());
+        if (openReason != null) {
+            throw new GoodDataAuthException(LOGIN_CIRCUIT_OPEN + openReason);
+        }
+        final MetricsListener listener = metricsListener;
+        final ClientStatistics clientStatistics = statistics;
+        if (listener == MetricsListener.NOOP && clientStatistics == null) {
+            return requestSst();
+        }
+        final long start = System.nanoTime();
+        String sst = null;
+        try {
+            sst = requestSst();
+            return sst;
+        } finally {
+            if (clientStatistics != null) {
+                clientStatistics.sstObtained(sst != null);
+            }
+            try {
+                listener.sstObtained(httpHost, System.nanoTime() - start, sst != null);
+            } catch (RuntimeException e) {
+                log.warn("Metrics listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Obtain SST by the SST strategy and record the outcome to the login circuit breaker.
+     */
+    private String requestSst() throws IOException {
+        try {
+            final String sst = sstStrategy.obtainSst();
+            loginCircuitBreaker.succeeded();
+            return sst;
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            loginCircuitBreaker.failed(e.toString(), System.currentTimeMillis());
+            throw e;
+        } catch (RuntimeException e) {
+            loginCircuitBreaker.failed(e.getMessage() != null ? e.getMessage() : e.toString(),
+                    System.currentTimeMillis());
+            throw e;
+        }
+    }
+
+    private void installSst(final String sst, final HttpHost httpHost, final HttpContext context) {
+        CookieUtils.replaceSst(sst, context, httpHost.getHostName());
+        sstHost = httpHost;
+        tokens.set(sst != null ? new GoodDataTokens(httpHost, sst, null, -1) : null);
     }
 
     /**
@@ -201,13 +957,40 @@ public class GoodDataHttpClient implements HttpClient {
      * @throws GoodDataAuthException error
      */
     private boolean refreshTt(final HttpHost httpHost) throws IOException {
+        final MetricsListener listener = metricsListener;
+        final ClientStatistics clientStatistics = statistics;
+        if (listener == MetricsListener.NOOP && clientStatistics == null) {
+            return requestTt(httpHost);
+        }
+        final long start = System.nanoTime();
+        boolean refreshed = false;
+        try {
+            refreshed = requestTt(httpHost);
+            return refreshed;
+        } finally {
+            if (clientStatistics != null) {
+                clientStatistics.ttRefreshed(refreshed);
+            }
+            try {
+                listener.ttRefreshed(httpHost, System.nanoTime() - start, refreshed);
+            } catch (RuntimeException e) {
+                log.warn("Metrics listener failed", e);
+            }
+        }
+    }
+
+    private boolean requestTt(final HttpHost httpHost) throws IOException {
         log.debug("Obtaining TT");
         final HttpGet getTT = new HttpGet(TOKEN_URL);
         try {
-            final HttpResponse response = httpClient.execute(httpHost, getTT, context);
+            final HttpClient client = authHttpClient != null ? authHttpClient : httpClient;
+            final HttpResponse response = client.execute(httpHost, getTT, createRequestContext());
             final int status = response.getStatusLine().getStatusCode();
             switch (status) {
                 case HttpStatus.SC_OK:
+                    final Cookie tt = extractTt(httpHost, response);
+                    ttRefreshed(httpHost, tt);
+                    scheduleTtRefresh(httpHost, tt);
                     return true;
                 case HttpStatus.SC_UNAUTHORIZED:
                     return false;
@@ -219,6 +1002,142 @@ public class GoodDataHttpClient implements HttpClient {
         }
     }
 
+    private Cookie extractTt(final HttpHost httpHost, final HttpResponse response) {
+        try {
+            return CookieUtils.extractCookie(response, httpHost, TOKEN_URL, CookieUtils.TT_COOKIE_NAME);
+        } catch (MalformedCookieException e) {
+            log.debug("Unable to parse TT cookie", e);
+            return null;
+        }
+    }
+
+    /**
+     * Record TT just obtained and store the tokens to the token cache.
+     * @param httpHost HTTP host
+     * @param tt TT cookie, null when the response did not contain parsable one
+     */
+    private void ttRefreshed(final HttpHost httpHost, final Cookie tt) {
+        if (tt == null) {
+            return;
+        }
+        final long expiration = tt.getExpiryDate() != null ? tt.getExpiryDate().getTime() : -1;
+        GoodDataTokens current;
+        do {
+            current = tokens.get();
+            if (current == null || !current.getHost().equals(httpHost)) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, current.withTt(tt.getValue(), expiration)));
+        storeTokens();
+    }
+
+    private void storeTokens() {
+        final TokenCache cache = tokenCache;
+        final GoodDataTokens current = tokens.get();
+        if (cache == null || current == null) {
+            return;
+        }
+        try {
+            cache.store(current);
+        } catch (IOException e) {
+            log.warn("Unable to store tokens to the token cache", e);
+        }
+    }
+
+    /**
+     * Install tokens loaded from the token cache into the given context.
+     */
+    private void installTokens(final GoodDataTokens loaded, final HttpContext context) {
+        final HttpHost httpHost = loaded.getHost();
+        log.debug("Installing cached tokens " + loaded);
+        loginCircuitBreaker.succeeded();
+        CookieUtils.replaceSst(loaded.getSst(), context, httpHost.getHostName());
+        sstHost = httpHost;
+        final long now = System.currentTimeMillis();
+        if (loaded.isTtValid(now)) {
+            CookieUtils.replaceTt(loaded.getTt(), context, httpHost, loaded.getTtExpiration());
+            if (loaded.getTtExpiration() >= 0) {
+                scheduleTtRefresh(httpHost, loaded.getTtExpiration() - now);
+            }
+        }
+        tokens.set(loaded);
+    }
+
+    /**
+     * Schedule proactive refresh of TT just obtained, when enabled and TT lifetime is known.
+     * @param httpHost HTTP host
+     * @param tt TT cookie set by the TT refresh, can be null
+     */
+    private void scheduleTtRefresh(final HttpHost httpHost, final Cookie tt) {
+        long lifetime = ttLifetimeMillis;
+        if (tt != null && tt.getExpiryDate() != null) {
+            lifetime = tt.getExpiryDate().getTime() - System.currentTimeMillis();
+        }
+        scheduleTtRefresh(httpHost, lifetime);
+    }
+
+    /**
+     * Schedule proactive refresh of TT, when enabled.
+     * @param httpHost HTTP host
+     * @param lifetime remaining TT lifetime in milliseconds
+     */
+    private void scheduleTtRefresh(final HttpHost httpHost, final long lifetime) {
+        final ScheduledExecutorService scheduler = ttRefreshScheduler;
+        if (scheduler == null || lifetime <= 0) {
+            return;
+        }
+        final long delay = Math.max(lifetime - ttRefreshAheadMillis, lifetime / 2);
+        final ScheduledFuture<?> scheduled;
+        try {
+            scheduled = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    refreshTtInBackground(httpHost);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.warn("Unable to schedule TT refresh", e);
+            return;
+        }
+        log.debug("TT refresh scheduled in " + delay + "ms");
+        final ScheduledFuture<?> previous = scheduledTtRefresh.getAndSet(scheduled);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    /**
+     * Replace SST by the one renewed in background. The TT obtained using the previous SST is still valid,
+     * the next TT refresh uses the new SST.
+     * @param sst renewed SST
+     */
+    private void installRenewedSst(final String sst) {
+        final HttpHost httpHost = sstHost;
+        if (httpHost == null) {
+            return;
+        }
+        log.debug("Installing renewed SST");
+        loginCircuitBreaker.succeeded();
+        CookieUtils.replaceSst(sst, context, httpHost.getHostName());
+        GoodDataTokens current;
+        do {
+            current = tokens.get();
+            if (current == null) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, current.withSst(sst)));
+        storeTokens();
+    }
+
+    private void refreshTtInBackground(final HttpHost httpHost) {
+        log.debug("Proactive TT refresh");
+        try {
+            authenticate(GoodDataChallengeType.TT, httpHost, context, authEpoch);
+        } catch (Exception e) {
+            log.warn("Proactive TT refresh failed, TT will be refreshed when it is rejected", e);
+        }
+    }
+
     @Override
     public HttpParams getParams() {
         return httpClient.getParams();
@@ -231,12 +1150,12 @@ public class GoodDataHttpClient implements HttpClient {
 
     @Override
     public HttpResponse execute(HttpHost target, HttpRequest request) throws IOException {
-        return execute(target, request, context);
+        return execute(target, request, (HttpContext) null);
     }
 
     @Override
     public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> responseHandler) throws IOException {
-        return execute(target, request, responseHandler, context);
+        return execute(target, request, responseHandler, null);
     }
 
     @Override
@@ -260,7 +1179,7 @@ public class GoodDataHttpClient implements HttpClient {
 
     @Override
     public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler) throws IOException {
-        return execute(request, responseHandler, context);
+        return execute(request, responseHandler, null);
     }
 
     @Override
@@ -273,23 +1192,200 @@ public class GoodDataHttpClient implements HttpClient {
     @Override
     public HttpResponse execute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
         if (context == null) {
-            context = this.context;
+            context = createRequestContext();
         }
-        final ReadWriteLock rwLock = (ReadWriteLock) context.getAttribute(LOCK_RW);
-        Lock readLock = null;
-        if (rwLock != null) {
-            readLock = rwLock.readLock();
-            readLock.lock();
+        final MetricsListener listener = metricsListener;
+        final RequestMetrics metrics = listener != MetricsListener.NOOP
+                ? new RequestMetrics(target, request.getRequestLine().getMethod()) : null;
+        final ClientStatistics clientStatistics = statistics;
+        if (clientStatistics != null) {
+            clientStatistics.requestStarted();
         }
-
-        final HttpResponse resp;
+        final ReplayableEntity replayableEntity = makeEntityReplayable(request);
+        final Header expectContinue = addExpectContinue(request);
         try {
-            resp = this.httpClient.execute(target, request, context);
+            final RetryPolicy policy = retryPolicy;
+            if (policy != null) {
+                policy.requested();
+            }
+            final HttpResponse response = policy != null && policy.isRetryable(request)
+                    ? executeWithRetries(policy, target, request, context, metrics)
+                    : execute(target, request, context, maxAuthAttempts, metrics);
+            if (metrics != null) {
+                metrics.status = response.getStatusLine().getStatusCode();
+            }
+            return response;
         } finally {
-            if (readLock != null) {
-                readLock.unlock();
+            if (expectContinue != null) {
+                request.removeHeader(expectContinue);
+            }
+            if (replayableEntity != null) {
+                ((HttpEntityEnclosingRequest) request).setEntity(replayableEntity.getOriginalEntity());
+                replayableEntity.dispose();
+            }
+            if (clientStatistics != null) {
+                clientStatistics.requestCompleted();
+            }
+            if (metrics != null) {
+                metrics.completed();
+                try {
+                    listener.requestCompleted(metrics);
+                } catch (RuntimeException e) {
+                    log.warn("Metrics listener failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Execute idempotent request, retrying it after transient failures as allowed by the retry policy.
+     */
+    private HttpResponse executeWithRetries(final RetryPolicy policy, final HttpHost target, final HttpRequest request,
+                                            final HttpContext context, final RequestMetrics metrics)
+            throws IOException {
+        final long deadline = System.currentTimeMillis() + policy.getDeadlineMillis();
+        long delay = policy.getInitialDelayMillis();
+        for (int attempt = 1; ; attempt++) {
+            final HttpResponse response;
+            try {
+                response = execute(target, request, context, maxAuthAttempts, metrics);
+            } catch (IOException e) {
+                if (!policy.isRetryable(e)) {
+                    throw e;
+                }
+                delay = policy.retryDelay(attempt, delay, -1, deadline - System.currentTimeMillis());
+                if (delay < 0) {
+                    throw e;
+                }
+                log.debug("Request failed, retry " + attempt + " in " + delay + "ms: " + e);
+                sleepBeforeRetry(delay);
+                continue;
+            }
+            if (!policy.isRetryable(response)) {
+                return response;
+            }
+            final long now = System.currentTimeMillis();
+            delay = policy.retryDelay(attempt, delay, RetryPolicy.retryAfterMillis(response, now), deadline - now);
+            if (delay < 0) {
+                return response;
+            }
+            log.debug("Request failed with status " + response.getStatusLine().getStatusCode() + ", retry " + attempt
+                    + " in " + delay + "ms");
+            EntityUtils.consume(response.getEntity());
+            sleepBeforeRetry(delay);
+        }
+    }
+
+    private static void sleepBeforeRetry(final long delay) throws InterruptedIOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for retry");
+        }
+    }
+
+    /**
+     * Wrap non-repeatable request entity so that the request can be replayed after authentication.
+     * @return the wrapping entity or null when the request has no non-repeatable entity
+     */
+    private ReplayableEntity makeEntityReplayable(final HttpRequest request) {
+        if (!entityReplayEnabled || !(request instanceof HttpEntityEnclosingRequest)) {
+            return null;
+        }
+        final HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+        final HttpEntity entity = enclosingRequest.getEntity();
+        if (entity == null || entity.isRepeatable()) {
+            return null;
+        }
+        final ReplayableEntity replayableEntity = new ReplayableEntity(entity, ByteChunkPool.DEFAULT,
+                entityMemoryThreshold);
+        enclosingRequest.setEntity(replayableEntity);
+        return replayableEntity;
+    }
+
+    /**
+     * Add <code>Expect: 100-continue</code> header to HTTP/1.1 request with entity exceeding the threshold,
+     * unless the request already expects continue.
+     * @return the added header or null
+     */
+    private Header addExpectContinue(final HttpRequest request) {
+        final long threshold = expectContinueThreshold;
+        if (threshold < 0 || !(request instanceof HttpEntityEnclosingRequest)) {
+            return null;
+        }
+        final HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+        final HttpEntity entity = enclosingRequest.getEntity();
+        if (entity == null || enclosingRequest.expectContinue()
+                || request.getProtocolVersion().lessEquals(HttpVersion.HTTP_1_0)) {
+            return null;
+        }
+        final long length = entity.getContentLength();
+        if (length >= 0 && length < threshold) {
+            return null;
+        }
+        final Header header = new BasicHeader(HTTP.EXPECT_DIRECTIVE, HTTP.EXPECT_CONTINUE);
+        request.addHeader(header);
+        return header;
+    }
+
+    /**
+     * @param metrics metrics of the request to record to, null when metrics are disabled
+     */
+    private HttpResponse execute(final HttpHost target, final HttpRequest request, final HttpContext context,
+                                 final int maxAttempts, final RequestMetrics metrics) throws IOException {
+        final long now = System.currentTimeMillis();
+        final String openReason = loginCircuitBreaker.getOpenReason(now);
+        if (openReason != null) {
+            return createCircuitOpenResponse(request, openReason, loginCircuitBreaker.getRemainingMillis(now));
+        }
+        for (int attempt = 0; ; attempt++) {
+            final RequestRateLimiter limiter = rateLimiter;
+            if (limiter != null) {
+                final HttpResponse rejected = acquirePermit(limiter, target, request);
+                if (rejected != null) {
+                    return rejected;
+                }
+            }
+            final AdaptiveConcurrencyLimiter concurrency = concurrencyLimiter;
+            if (concurrency != null && !concurrency.acquire()) {
+                return new SyntheticHttpResponse(request.getProtocolVersion(),
+                        HttpStatus.SC_SERVICE_UNAVAILABLE, "Client concurrency limit exceeded");
+            }
+            final int epoch = authEpoch;
+            final long sent = metrics != null ? System.nanoTime() : 0;
+            final HttpResponse resp = concurrency != null ? executeLimited(concurrency, target, request, context)
+                    : this.httpClient.execute(target, request, context);
+            if (metrics != null) {
+                metrics.transportNanos += System.nanoTime() - sent;
+            }
+            final GoodDataChallengeType challenge = GoodDataChallengeType.identify(resp);
+            if (challenge == GoodDataChallengeType.UNKNOWN) {
+                return resp;
+            }
+            EntityUtils.consume(resp.getEntity());
+            if (metrics != null) {
+                metrics.challenge = challenge;
+            }
+            if (attempt >= maxAttempts) {
+                return createUnauthorizedResponse(resp, "Unable to authenticate after " + maxAttempts + " attempts");
+            }
+            final long waitStart = metrics != null ? System.nanoTime() : 0;
+            try {
+                if (attempt > 0) {
+                    backoff(attempt);
+                }
+                authenticate(challenge, target, context, epoch);
+            } catch (GoodDataAuthException e) {
+                return createUnauthorizedResponse(resp, e.getMessage());
+            } finally {
+                if (metrics != null) {
+                    metrics.authWaitNanos += System.nanoTime() - waitStart;
+                }
+            }
+            if (metrics != null) {
+                metrics.retries++;
             }
         }
-        return handleResponse(target, request, resp, context);
     }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.io.IOException;
+
+/**
+ * Management interface of {@link GoodDataHttpClient} registered by {@link GoodDataHttpClient#registerMBean()}.
+ * Pool statistics are <code>-1</code> when the connection pool is not known.
+ */
+public interface GoodDataHttpClientMXBean {
+
+    /**
+     * @return number of requests executed since the registration
+     */
+    long getRequestCount();
+
+    /**
+     * @return average number of requests per second over the last completed sampling interval of 10 seconds
+     * (longer when the attribute is not read meanwhile), or since the registration during the first interval
+     */
+    double getRequestsPerSecond();
+
+    /**
+     * @return number of requests being executed
+     */
+    long getInFlightRequests();
+
+    long getTtRefreshCount();
+
+    long getFailedTtRefreshCount();
+
+    long getSstRefreshCount();
+
+    long getFailedSstRefreshCount();
+
+    /**
+     * @return milliseconds since the last successful TT refresh, <code>-1</code> when not refreshed yet
+     */
+    long getMillisSinceLastTtRefresh();
+
+    /**
+     * @return milliseconds since SST was obtained last time, <code>-1</code> when not obtained yet
+     */
+    long getMillisSinceLastSstRefresh();
+
+    /**
+     * @return number of threads waiting for authentication
+     */
+    int getAuthWaitingThreads();
+
+    int getPoolLeased();
+
+    int getPoolAvailable();
+
+    int getPoolPending();
+
+    int getPoolMax();
+
+    /**
+     * @return current limit of requests in flight, <code>-1</code> when the concurrency limiter is not set
+     */
+    int getConcurrencyLimit();
+
+    /**
+     * Refresh TT now, for the host the client authenticated to.
+     */
+    void forceTtRefresh() throws IOException;
+
+    /**
+     * Drop the current SST, new one is obtained by the next authentication (when TT is rejected).
+     */
+    void invalidateSst();
+
+}
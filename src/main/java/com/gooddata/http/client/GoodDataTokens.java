@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpHost;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Immutable snapshot of GoodData tokens obtained for a host: super-secure token (SST) and temporary token (TT).
+ */
+public final class GoodDataTokens {
+
+    private final HttpHost host;
+    private final String sst;
+    private final String tt;
+    private final long ttExpiration;
+
+    /**
+     * Construct object.
+     * @param host host the tokens were obtained for
+     * @param sst super-secure token
+     * @param tt temporary token, <code>null</code> when unknown
+     * @param ttExpiration TT expiration in milliseconds since epoch, negative value when unknown
+     */
+    public GoodDataTokens(final HttpHost host, final String sst, final String tt, final long ttExpiration) {
+        notNull(host, "Host cannot be null");
+        notNull(sst, "SST cannot be null");
+        this.host = host;
+        this.sst = sst;
+        this.tt = tt;
+        this.ttExpiration = tt != null ? ttExpiration : -1;
+    }
+
+    public HttpHost getHost() {
+        return host;
+    }
+
+    public String getSst() {
+        return sst;
+    }
+
+    public String getTt() {
+        return tt;
+    }
+
+    public long getTtExpiration() {
+        return ttExpiration;
+    }
+
+    /**
+     * @param now current time in milliseconds since epoch
+     * @return true when TT is known and not expired at the given time
+     */
+    public boolean isTtValid(final long now) {
+        return tt != null && (ttExpiration < 0 || ttExpiration > now);
+    }
+
+    /**
+     * @return copy with the given TT
+     */
+    public GoodDataTokens withTt(final String tt, final long ttExpiration) {
+        return new GoodDataTokens(host, sst, tt, ttExpiration);
+    }
+
+    /**
+     * @return copy with the given SST, TT is kept
+     */
+    public GoodDataTokens withSst(final String sst) {
+        return new GoodDataTokens(host, sst, tt, ttExpiration);
+    }
+
+    void writeTo(final DataOutput out) throws IOException {
+        out.writeUTF(host.getSchemeName());
+        out.writeUTF(host.getHostName());
+        out.writeInt(host.getPort());
+        out.writeUTF(sst);
+        out.writeBoolean(tt != null);
+        if (tt != null) {
+            out.writeUTF(tt);
+            out.writeLong(ttExpiration);
+        }
+    }
+
+    static GoodDataTokens readFrom(final DataInput in) throws IOException {
+        final String scheme = in.readUTF();
+        final String hostName = in.readUTF();
+        final int port = in.readInt();
+        final String sst = in.readUTF();
+        String tt = null;
+        long ttExpiration = -1;
+        if (in.readBoolean()) {
+            tt = in.readUTF();
+            ttExpiration = in.readLong();
+        }
+        return new GoodDataTokens(new HttpHost(hostName, port, scheme), sst, tt, ttExpiration);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GoodDataTokens)) {
+            return false;
+        }
+        final GoodDataTokens that = (GoodDataTokens) o;
+        return ttExpiration == that.ttExpiration && host.equals(that.host) && sst.equals(that.sst)
+                && (tt != null ? tt.equals(that.tt) : that.tt == null);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = host.hashCode();
+        result = 31 * result + sst.hashCode();
+        result = 31 * result + (tt != null ? tt.hashCode() : 0);
+        result = 31 * result + (int) (ttExpiration ^ (ttExpiration >>> 32));
+        return result;
+    }
+
+    /**
+     * Tokens themselves are not included, so that they do not leak to logs.
+     */
+    @Override
+    public String toString() {
+        return "GoodDataTokens[host=" + host + ", tt=" + (tt != null) + ", ttExpiration=" + ttExpiration + "]";
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpHost;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics listener recording latencies of the request phases into lock-free {@link LatencyHistogram}s
+ * and counting challenges, retries and responses by status class.
+ */
+public class HistogramMetricsListener implements MetricsListener {
+
+    private final LatencyHistogram authWait = new LatencyHistogram();
+    private final LatencyHistogram transport = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram ttRefresh = new LatencyHistogram();
+    private final LatencyHistogram sstRetrieval = new LatencyHistogram();
+
+    private final AtomicLongArray challenges = new AtomicLongArray(GoodDataChallengeType.values().length);
+    private final AtomicLong retries = new AtomicLong();
+    /**
+     * Responses by status class, index 0 counts requests failed with an exception.
+     */
+    private final AtomicLongArray statuses = new AtomicLongArray(6);
+    private final AtomicLong failedTtRefreshes = new AtomicLong();
+    private final AtomicLong failedSstRetrievals = new AtomicLong();
+
+    @Override
+    public void requestCompleted(final RequestMetrics metrics) {
+        if (metrics.getAuthWaitNanos() > 0) {
+            authWait.record(metrics.getAuthWaitNanos());
+        }
+        transport.record(metrics.getTransportNanos());
+        total.record(metrics.getTotalNanos());
+        if (metrics.getChallenge() != GoodDataChallengeType.UNKNOWN) {
+            challenges.incrementAndGet(metrics.getChallenge().ordinal());
+        }
+        if (metrics.getRetries() > 0) {
+            retries.addAndGet(metrics.getRetries());
+        }
+        final int statusClass = metrics.getStatus() / 100;
+        statuses.incrementAndGet(statusClass >= 1 && statusClass <= 5 ? statusClass : 0);
+    }
+
+    @Override
+    public void ttRefreshed(final HttpHost host, final long durationNanos, final boolean successful) {
+        ttRefresh.record(durationNanos);
+        if (!successful) {
+            failedTtRefreshes.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void sstObtained(final HttpHost host, final long durationNanos, final boolean successful) {
+        sstRetrieval.record(durationNanos);
+        if (!successful) {
+            failedSstRetrievals.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return time requests waited for authentication, recorded only for requests which waited
+     */
+    public LatencyHistogram getAuthWait() {
+        return authWait;
+    }
+
+    /**
+     * @return time requests spent in the wrapped HTTP client
+     */
+    public LatencyHistogram getTransport() {
+        return transport;
+    }
+
+    /**
+     * @return total time of requests
+     */
+    public LatencyHistogram getTotal() {
+        return total;
+    }
+
+    /**
+     * @return duration of TT refreshes
+     */
+    public LatencyHistogram getTtRefresh() {
+        return ttRefresh;
+    }
+
+    /**
+     * @return duration of SST retrievals
+     */
+    public LatencyHistogram getSstRetrieval() {
+        return sstRetrieval;
+    }
+
+    /**
+     * @return number of requests which received the given challenge
+     */
+    public long getChallenges(final GoodDataChallengeType type) {
+        return challenges.get(type.ordinal());
+    }
+
+    /**
+     * @return total number of request replays after authentication
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @param statusClass status class 1 - 5 (e.g. 2 for 2xx responses), 0 for requests failed with an exception
+     * @return number of completed requests of the status class
+     */
+    public long getResponses(final int statusClass) {
+        return statuses.get(statusClass);
+    }
+
+    public long getFailedTtRefreshes() {
+        return failedTtRefreshes.get();
+    }
+
+    public long getFailedSstRetrievals() {
+        return failedSstRetrievals.get();
+    }
+}
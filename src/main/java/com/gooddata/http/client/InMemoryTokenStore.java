@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Token store kept in memory, shares SST among clients of a single process.
+ */
+public class InMemoryTokenStore implements TokenStore {
+
+    private final AtomicReference<TokenStoreEntry> entry = new AtomicReference<TokenStoreEntry>(TokenStoreEntry.EMPTY);
+
+    @Override
+    public TokenStoreEntry get() {
+        return entry.get();
+    }
+
+    @Override
+    public boolean compareAndSet(final TokenStoreEntry expected, final TokenStoreEntry update) {
+        notNull(expected, "Expected entry cannot be null");
+        notNull(update, "Update cannot be null");
+        TokenStoreEntry current;
+        do {
+            current = entry.get();
+            if (current.getVersion() != expected.getVersion()) {
+                return false;
+            }
+        } while (!entry.compareAndSet(current, update));
+        return true;
+    }
+}
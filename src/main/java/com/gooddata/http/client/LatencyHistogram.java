@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Lock-free histogram of non-negative values with logarithmic buckets, each power of two is split into
+ * 8 linear sub-buckets, so the values reported by {@link #getValueAtPercentile(double)} are within 12.5%
+ * of the recorded ones. Recording is an atomic increment of the bucket, the total and the maximum are kept
+ * in {@link StripedCounter}s, so that recording threads do not contend on them.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final StripedCounter total = new StripedCounter();
+    private final StripedCounter max = new StripedCounter();
+
+    /**
+     * Record a value, negative values are recorded as zero.
+     * @param value value
+     */
+    public void record(final long value) {
+        final long v = Math.max(value, 0);
+        counts.incrementAndGet(bucket(v));
+        total.add(v);
+        max.updateMax(v);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return sum of recorded values
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * @return maximal recorded value, <code>0</code> when empty
+     */
+    public long getMax() {
+        return max.max();
+    }
+
+    /**
+     * @return mean of recorded values, <code>0</code> when empty
+     */
+    public double getMean() {
+        final long count = getCount();
+        return count == 0 ? 0 : (double) total.sum() / count;
+    }
+
+    /**
+     * @param percentile percentile in range 0 - 100
+     * @return upper bound of the bucket containing the value at the percentile (capped by the maximum),
+     * <code>0</code> when empty
+     */
+    public long getValueAtPercentile(final double percentile) {
+        isTrue(percentile >= 0 && percentile <= 100, "Percentile must be in range 0 - 100");
+        final long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.max());
+            }
+        }
+        return max.max();
+    }
+
+    /**
+     * Reset the histogram. Values recorded concurrently with the reset may be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        max.reset();
+    }
+
+    static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long upperBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long subBucket = bucket % SUB_BUCKETS;
+        final long lowerBound = (SUB_BUCKETS + subBucket) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
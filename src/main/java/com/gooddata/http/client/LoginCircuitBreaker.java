@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Circuit breaker guarding SST retrieval. Every failure opens the circuit for a backoff which doubles with every
+ * consecutive failure, randomized to a value between half and full backoff, so that clients do not retry in sync.
+ * While open, the reason of the last failure is returned instead of attempting SST retrieval. When the backoff
+ * passes, the next retrieval is attempted and either closes the circuit or opens it again for a longer backoff.
+ * Disabled (never opens) until backoff is set.
+ */
+final class LoginCircuitBreaker {
+
+    private static final State CLOSED = new State(0, 0, null);
+
+    private final AtomicReference<State> state = new AtomicReference<State>(CLOSED);
+
+    private final Random random = new Random();
+
+    private volatile long initialBackoffMillis;
+
+    private volatile long maxBackoffMillis;
+
+    /**
+     * Set backoff.
+     * @param initialBackoffMillis time the circuit is open after the first failure, zero disables the breaker
+     * @param maxBackoffMillis maximal time the circuit is open
+     */
+    void setBackoff(final long initialBackoffMillis, final long maxBackoffMillis) {
+        isTrue(initialBackoffMillis >= 0, "Initial backoff cannot be negative");
+        isTrue(maxBackoffMillis >= initialBackoffMillis, "Max backoff cannot be lower than initial backoff");
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        if (initialBackoffMillis == 0) {
+            state.set(CLOSED);
+        }
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return reason of the failure which opened the circuit, null when the circuit is closed
+     */
+    String getOpenReason(final long now) {
+        final State current = state.get();
+        return now < current.openUntil ? current.reason : null;
+    }
+
+    /**
+     * @param now current time in milliseconds
+     * @return time in milliseconds until the circuit closes, zero when it is closed
+     */
+    long getRemainingMillis(final long now) {
+        return Math.max(state.get().openUntil - now, 0);
+    }
+
+    /**
+     * Record successful SST retrieval, closes the circuit.
+     */
+    void succeeded() {
+        if (state.get() != CLOSED) {
+            state.set(CLOSED);
+        }
+    }
+
+    /**
+     * Record failed SST retrieval, opens the circuit.
+     * @param reason failure reason returned while the circuit is open
+     * @param now current time in milliseconds
+     */
+    void failed(final String reason, final long now) {
+        final long initial = initialBackoffMillis;
+        if (initial == 0) {
+            return;
+        }
+        State current;
+        State next;
+        do {
+            current = state.get();
+            final int failures = current.failures + 1;
+            final long backoff = backoff(initial, maxBackoffMillis, failures);
+            final long jittered = backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+            next = new State(failures, jittered < Long.MAX_VALUE - now ? now + jittered : Long.MAX_VALUE, reason);
+        } while (!state.compareAndSet(current, next));
+    }
+
+    /**
+     * @return initial backoff doubled for every failure after the first one, at most the max backoff
+     */
+    static long backoff(final long initial, final long max, final int failures) {
+        final int shift = Math.min(failures - 1, 62);
+        // stop doubling before the shift overflows
+        if (initial > max >> shift) {
+            return max;
+        }
+        return Math.min(initial << shift, max);
+    }
+
+    private static final class State {
+        private final int failures;
+        private final long openUntil;
+        private final String reason;
+
+        private State(final int failures, final long openUntil, final String reason) {
+            this.failures = failures;
+            this.openUntil = openUntil;
+            this.reason = reason;
+        }
+    }
+}
@@ -7,7 +7,6 @@ package com.gooddata.http.client;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
@@ -15,16 +14,11 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.cookie.Cookie;
-import org.apache.http.cookie.CookieOrigin;
-import org.apache.http.cookie.CookieSpec;
 import org.apache.http.cookie.MalformedCookieException;
-import org.apache.http.cookie.SM;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.cookie.BestMatchSpec;
 
 import java.io.IOException;
-import java.util.List;
 
 import static org.apache.commons.lang.Validate.notNull;
 
@@ -66,44 +60,50 @@ public class LoginSSTRetrievalStrategy implements SSTRetrievalStrategy {
     @Override
     public String obtainSst() throws IOException {
         log.debug("Obtaining STT");
-        final HttpPost postLogin = new HttpPost(LOGIN_URL);
+        final HttpPost postLogin = createLoginRequest(login, password);
         try {
-            final HttpEntity requestEntity = new StringEntity(createLoginJson(login, password), ContentType.APPLICATION_JSON);
-            postLogin.setEntity(requestEntity);
-            postLogin.setHeader("Accept", ContentType.APPLICATION_JSON.toString());
             final HttpResponse response = httpClient.execute(httpHost, postLogin);
-            int status = response.getStatusLine().getStatusCode();
-            if (status != HttpStatus.SC_OK) {
-                throw new GoodDataAuthException("Unable to login: " + status);
-            }
-            final String sst = extractSST(response);
-            if (sst == null) {
-                throw new GoodDataAuthException("Unable to login. Missing SST Set-Cookie header.");
-            }
-            return sst;
-        } catch (MalformedCookieException e) {
-            throw new GoodDataAuthException("Unable to login. Malformed Set-Cookie header.");
+            return extractSst(response, httpHost);
         } finally {
             postLogin.releaseConnection();
         }
     }
 
-    private String createLoginJson(final String login, final String password) {
-        return "{\"postUserLogin\":{\"login\":\"" + StringEscapeUtils.escapeJavaScript(login) +
-                "\",\"password\":\"" + StringEscapeUtils.escapeJavaScript(password) + "\",\"remember\":0}}";
+    /**
+     * Create login request, shared with {@link AsyncLoginSSTRetrievalStrategy}.
+     */
+    static HttpPost createLoginRequest(final String login, final String password) {
+        final HttpPost postLogin = new HttpPost(LOGIN_URL);
+        final HttpEntity requestEntity = new StringEntity(createLoginJson(login, password), ContentType.APPLICATION_JSON);
+        postLogin.setEntity(requestEntity);
+        postLogin.setHeader("Accept", ContentType.APPLICATION_JSON.toString());
+        return postLogin;
     }
 
-    private String extractSST(final HttpResponse response) throws MalformedCookieException {
-        String sst = null;
-        final CookieSpec cookieSpec = new BestMatchSpec();
-        final CookieOrigin cookieOrigin = new CookieOrigin(httpHost.getHostName(), httpHost.getPort(), "/gdc/account", true);
-        for (Header header : response.getHeaders(SM.SET_COOKIE)) {
-            final List<Cookie> cookies = cookieSpec.parse(header, cookieOrigin);
-            if (cookies.size() > 0 && CookieUtils.SST_COOKIE_NAME.equals(cookies.get(0).getName())) {
-                sst = cookies.get(0).getValue();
-                break;
-            }
+    /**
+     * Extract SST from login response, shared with {@link AsyncLoginSSTRetrievalStrategy}.
+     * @throws GoodDataAuthException when login failed or the response contains no SST
+     */
+    static String extractSst(final HttpResponse response, final HttpHost httpHost) {
+        final int status = response.getStatusLine().getStatusCode();
+        if (status != HttpStatus.SC_OK) {
+            throw new GoodDataAuthException("Unable to login: " + status);
         }
-        return sst;
+        final Cookie cookie;
+        try {
+            cookie = CookieUtils.extractCookie(response, httpHost, CookieUtils.SST_COOKIE_PATH,
+                    CookieUtils.SST_COOKIE_NAME);
+        } catch (MalformedCookieException e) {
+            throw new GoodDataAuthException("Unable to login. Malformed Set-Cookie header.");
+        }
+        if (cookie == null) {
+            throw new GoodDataAuthException("Unable to login. Missing SST Set-Cookie header.");
+        }
+        return cookie.getValue();
+    }
+
+    private static String createLoginJson(final String login, final String password) {
+        return "{\"postUserLogin\":{\"login\":\"" + StringEscapeUtils.escapeJavaScript(login) +
+                "\",\"password\":\"" + StringEscapeUtils.escapeJavaScript(password) + "\",\"remember\":0}}";
     }
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Token cache shared by processes running on the same host, kept in a memory-mapped file. Access is coordinated
+ * by an exclusive {@link FileLock} (and by a {@link ReentrantLock} among threads of the process), every store
+ * increments the version counter, which can be read without locking by {@link #getVersion()}. Loading tokens
+ * of unchanged version returns the previously loaded ones without locking and reading the file.
+ * The file is readable by its owner only, tokens are not encrypted. Use single instance per file in a process.
+ */
+public class MappedFileTokenCache implements SharedTokenCache, Closeable {
+
+    static final int SIZE = 4096;
+
+    private static final int MAGIC = 0x47444d54; // GDMT
+    private static final int FORMAT = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FORMAT_OFFSET = 4;
+    private static final int VERSION_OFFSET = 8;
+    private static final int LENGTH_OFFSET = 16;
+    private static final int PAYLOAD_OFFSET = 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileLock fileLock;
+    private volatile Loaded loaded;
+
+    /**
+     * Open (or create) the cache file.
+     * @param file cache file
+     */
+    public MappedFileTokenCache(final File file) throws IOException {
+        notNull(file, "File cannot be null");
+        final boolean created = file.createNewFile();
+        if (created) {
+            file.setReadable(false, false);
+            file.setReadable(true, true);
+            file.setWritable(false, false);
+            file.setWritable(true, true);
+        }
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            channel = this.file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            init();
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    private void init() throws IOException {
+        lock();
+        try {
+            if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+                buffer.putInt(FORMAT_OFFSET, FORMAT);
+                buffer.putLong(VERSION_OFFSET, 0);
+                buffer.putInt(LENGTH_OFFSET, 0);
+                buffer.putInt(MAGIC_OFFSET, MAGIC);
+                buffer.force();
+            } else if (buffer.getInt(FORMAT_OFFSET) != FORMAT) {
+                throw new IOException("Unsupported token cache format " + buffer.getInt(FORMAT_OFFSET));
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Version of the cached tokens, incremented by every store from any process. Read without locking.
+     */
+    public long getVersion() {
+        return buffer.getLong(VERSION_OFFSET);
+    }
+
+    @Override
+    public GoodDataTokens load() throws IOException {
+        final Loaded previous = loaded;
+        if (previous != null && previous.version == getVersion()) {
+            return previous.tokens;
+        }
+        lock();
+        try {
+            final long version = getVersion();
+            final int length = buffer.getInt(LENGTH_OFFSET);
+            if (length < 0 || length > SIZE - PAYLOAD_OFFSET) {
+                throw new IOException("Corrupted token cache");
+            }
+            GoodDataTokens tokens = null;
+            if (length != 0) {
+                final byte[] payload = new byte[length];
+                final ByteBuffer source = buffer.duplicate();
+                source.position(PAYLOAD_OFFSET);
+                source.get(payload);
+                tokens = GoodDataTokens.readFrom(new DataInputStream(new ByteArrayInputStream(payload)));
+            }
+            loaded = new Loaded(version, tokens);
+            return tokens;
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void store(final GoodDataTokens tokens) throws IOException {
+        notNull(tokens, "Tokens cannot be null");
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tokens.writeTo(new DataOutputStream(out));
+        final byte[] payload = out.toByteArray();
+        if (payload.length > SIZE - PAYLOAD_OFFSET) {
+            throw new IOException("Tokens too large for token cache: " + payload.length + " bytes");
+        }
+        lock();
+        try {
+            final ByteBuffer target = buffer.duplicate();
+            target.position(PAYLOAD_OFFSET);
+            target.put(payload);
+            buffer.putInt(LENGTH_OFFSET, payload.length);
+            buffer.putLong(VERSION_OFFSET, buffer.getLong(VERSION_OFFSET) + 1);
+            buffer.force();
+        } finally {
+            unlock();
+        }
+    }
+
+    @Override
+    public void lock() throws IOException {
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while locking token cache");
+        }
+        if (lock.getHoldCount() == 1) {
+            try {
+                fileLock = channel.lock(0, SIZE, false);
+            } catch (IOException e) {
+                lock.unlock();
+                throw e;
+            } catch (RuntimeException e) {
+                lock.unlock();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void unlock() throws IOException {
+        try {
+            if (lock.getHoldCount() == 1 && fileLock != null) {
+                fileLock.release();
+                fileLock = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Tokens loaded from the file together with their version.
+     */
+    private static final class Loaded {
+        private final long version;
+        private final GoodDataTokens tokens;
+
+        private Loaded(final long version, final GoodDataTokens tokens) {
+            this.version = version;
+            this.tokens = tokens;
+        }
+    }
+}
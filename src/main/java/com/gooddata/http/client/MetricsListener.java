@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpHost;
+
+/**
+ * Listener notified by {@link GoodDataHttpClient} about every executed request and every TT refresh
+ * and SST retrieval. Called synchronously by the thread which performed the measured operation,
+ * so implementations must be thread-safe and fast.
+ */
+public interface MetricsListener {
+
+    /**
+     * Listener ignoring all events, the client does not measure anything when it is used.
+     */
+    MetricsListener NOOP = new MetricsListener() {
+        @Override
+        public void requestCompleted(final RequestMetrics metrics) {
+        }
+
+        @Override
+        public void ttRefreshed(final HttpHost host, final long durationNanos, final boolean successful) {
+        }
+
+        @Override
+        public void sstObtained(final HttpHost host, final long durationNanos, final boolean successful) {
+        }
+    };
+
+    /**
+     * Request executed by the client completed, either by a response or by an exception.
+     * @param metrics request metrics
+     */
+    void requestCompleted(RequestMetrics metrics);
+
+    /**
+     * TT refresh finished.
+     * @param host HTTP host
+     * @param durationNanos duration of the TT refresh in nanoseconds
+     * @param successful true when TT was obtained
+     */
+    void ttRefreshed(HttpHost host, long durationNanos, boolean successful);
+
+    /**
+     * SST retrieval by {@link SSTRetrievalStrategy} finished.
+     * @param host HTTP host
+     * @param durationNanos duration of the retrieval in nanoseconds
+     * @param successful true when SST was obtained
+     */
+    void sstObtained(HttpHost host, long durationNanos, boolean successful);
+
+}
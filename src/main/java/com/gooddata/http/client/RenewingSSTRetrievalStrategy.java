@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.apache.commons.lang.Validate.isTrue;
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * This strategy obtains super-secure token (SST) using another strategy and renews it in background before
+ * it expires. The renewed SST is handed over to {@link SSTRenewalListener} (registered automatically by
+ * {@link GoodDataHttpClient}) while the old one is still valid, so SST rotation does not pause the traffic.
+ * Failed renewal is retried with backoff (5 seconds doubling up to a minute) while the current SST is still valid.
+ * <pre>
+ * SSTRetrievalStrategy sstStrategy = new RenewingSSTRetrievalStrategy(
+ *          new LoginSSTRetrievalStrategy(HttpClientBuilder.create().build(), httpHost, login, password),
+ *          scheduler, TimeUnit.HOURS.toMillis(2));
+ * HttpClient client = new GoodDataHttpClient(httpClient, sstStrategy);
+ * </pre>
+ */
+public class RenewingSSTRetrievalStrategy implements SSTRetrievalStrategy {
+
+    private static final long DEFAULT_RENEW_AHEAD_MILLIS = 5 * 60 * 1000;
+    private static final long RENEWAL_RETRY_MILLIS = 5 * 1000;
+    private static final long MAX_RENEWAL_RETRY_MILLIS = 60 * 1000;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final SSTRetrievalStrategy sstStrategy;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final long sstLifetimeMillis;
+
+    private final long renewAheadMillis;
+
+    /**
+     * Guards that only one login (foreground or background) runs at a time.
+     */
+    private final Lock loginLock = new ReentrantLock();
+
+    /**
+     * Number of completed background renewals and the SST obtained by the last one, both written under login lock.
+     */
+    private volatile long renewals;
+    private volatile String renewedSst;
+
+    /**
+     * Time the current SST was obtained and number of background renewals failed since then.
+     */
+    private volatile long sstObtainedMillis;
+    private volatile int renewalFailures;
+
+    private final AtomicReference<ScheduledFuture<?>> scheduledRenewal = new AtomicReference<ScheduledFuture<?>>();
+
+    private volatile SSTRenewalListener listener;
+
+    /**
+     * Construct object, renewing the SST 5 minutes before it expires.
+     * @param sstStrategy strategy obtaining new SST
+     * @param scheduler scheduler running the renewal (owned by the caller)
+     * @param sstLifetimeMillis SST lifetime in milliseconds
+     */
+    public RenewingSSTRetrievalStrategy(final SSTRetrievalStrategy sstStrategy, final ScheduledExecutorService scheduler,
+                                        final long sstLifetimeMillis) {
+        this(sstStrategy, scheduler, sstLifetimeMillis, DEFAULT_RENEW_AHEAD_MILLIS);
+    }
+
+    /**
+     * Construct object.
+     * @param sstStrategy strategy obtaining new SST
+     * @param scheduler scheduler running the renewal (owned by the caller)
+     * @param sstLifetimeMillis SST lifetime in milliseconds
+     * @param renewAheadMillis how long before the SST expiration renewal runs, at most half of the lifetime is used
+     */
+    public RenewingSSTRetrievalStrategy(final SSTRetrievalStrategy sstStrategy, final ScheduledExecutorService scheduler,
+                                        final long sstLifetimeMillis, final long renewAheadMillis) {
+        notNull(sstStrategy, "SST strategy cannot be null");
+        notNull(scheduler, "Scheduler cannot be null");
+        isTrue(sstLifetimeMillis > 0, "SST lifetime must be positive");
+        isTrue(renewAheadMillis >= 0, "Renew ahead cannot be negative");
+        this.sstStrategy = sstStrategy;
+        this.scheduler = scheduler;
+        this.sstLifetimeMillis = sstLifetimeMillis;
+        this.renewAheadMillis = renewAheadMillis;
+    }
+
+    /**
+     * Set listener notified about renewed SST.
+     * @param listener listener, <code>null</code> to unset
+     */
+    public void setListener(final SSTRenewalListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Obtains new SST, called when the current one was rejected. When a background renewal completes while
+     * waiting for it, the renewed SST is returned instead of logging in again.
+     * @return SST
+     */
+    @Override
+    public String obtainSst() throws IOException {
+        final long renewalsBefore = renewals;
+        loginLock.lock();
+        try {
+            if (renewals != renewalsBefore) {
+                log.debug("SST renewed while waiting for login");
+                return renewedSst;
+            }
+            return login();
+        } finally {
+            loginLock.unlock();
+        }
+    }
+
+    /**
+     * Stop background renewal.
+     */
+    public void cancel() {
+        final ScheduledFuture<?> scheduled = scheduledRenewal.getAndSet(null);
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+
+    private String login() throws IOException {
+        final String sst = sstStrategy.obtainSst();
+        sstObtainedMillis = System.currentTimeMillis();
+        renewalFailures = 0;
+        scheduleRenewal(Math.max(sstLifetimeMillis - renewAheadMillis, sstLifetimeMillis / 2));
+        return sst;
+    }
+
+    /**
+     * Retry failed renewal after a backoff doubling with every failure, as long as the current SST is valid then.
+     * @return true when the retry was scheduled
+     */
+    private boolean scheduleRenewalRetry() {
+        final int failures = ++renewalFailures;
+        final long delay = Math.min(RENEWAL_RETRY_MILLIS << Math.min(failures - 1, 16), MAX_RENEWAL_RETRY_MILLIS);
+        if (System.currentTimeMillis() + delay >= sstObtainedMillis + sstLifetimeMillis) {
+            return false;
+        }
+        log.debug("SST renewal failed " + failures + " times, retry in " + delay + "ms");
+        scheduleRenewal(delay);
+        return true;
+    }
+
+    private void scheduleRenewal(final long delay) {
+        final ScheduledFuture<?> scheduled;
+        try {
+            scheduled = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    renew();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.warn("Unable to schedule SST renewal", e);
+            return;
+        }
+        final ScheduledFuture<?> previous = scheduledRenewal.getAndSet(scheduled);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    private void renew() {
+        if (!loginLock.tryLock()) {
+            //foreground login is running, it schedules the next renewal itself
+            return;
+        }
+        final String renewed;
+        try {
+            log.debug("Renewing SST");
+            renewed = login();
+            renewedSst = renewed;
+            renewals++;
+        } catch (Exception e) {
+            if (scheduleRenewalRetry()) {
+                log.info("SST renewal failed, it will be retried: " + e.getMessage());
+            } else {
+                log.warn("SST renewal failed, SST will be obtained when it is rejected", e);
+            }
+            return;
+        } finally {
+            loginLock.unlock();
+        }
+        final SSTRenewalListener listener = this.listener;
+        if (listener != null) {
+            listener.sstRenewed(renewed);
+        }
+    }
+}
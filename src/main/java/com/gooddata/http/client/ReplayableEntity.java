@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Makes non-repeatable entity repeatable. Content read from the wrapped entity is recorded in {@link SpillableBuffer}
+ * as it is sent, so the entity can be written again after GoodData authentication. When writing fails in the middle,
+ * the next write sends the recorded part and continues reading the wrapped entity.
+ * The entity must be {@link #dispose() disposed} once the request is finished. Not thread safe.
+ */
+class ReplayableEntity extends HttpEntityWrapper {
+
+    private final HttpEntity entity;
+    private final ByteChunkPool pool;
+    private final SpillableBuffer buffer;
+    private InputStream source;
+    private boolean sourceExhausted;
+
+    /**
+     * @param entity non-repeatable entity
+     * @param pool pool of memory chunks
+     * @param memoryThreshold maximal number of bytes kept in memory, larger content is moved to a temporary file
+     */
+    ReplayableEntity(final HttpEntity entity, final ByteChunkPool pool, final long memoryThreshold) {
+        super(entity);
+        this.entity = entity;
+        this.pool = pool;
+        buffer = new SpillableBuffer(pool, memoryThreshold);
+    }
+
+    HttpEntity getOriginalEntity() {
+        return entity;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        readSource(null);
+        return buffer.getInputStream();
+    }
+
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+        buffer.writeTo(out);
+        readSource(out);
+    }
+
+    /**
+     * Read rest of the wrapped entity into the buffer, copying it also to the given stream (if any).
+     */
+    private void readSource(final OutputStream out) throws IOException {
+        if (sourceExhausted) {
+            return;
+        }
+        if (source == null) {
+            source = entity.getContent();
+        }
+        final byte[] chunk = pool.acquire();
+        try {
+            int count;
+            while ((count = source.read(chunk)) != -1) {
+                // record first, so the data is replayed even when writing to the connection fails
+                buffer.write(chunk, 0, count);
+                if (out != null) {
+                    out.write(chunk, 0, count);
+                }
+            }
+        } finally {
+            pool.release(chunk);
+        }
+        sourceExhausted = true;
+        source.close();
+    }
+
+    /**
+     * Release buffered content and close the wrapped entity content.
+     */
+    void dispose() {
+        buffer.dispose();
+        if (source != null) {
+            try {
+                source.close();
+            } catch (IOException ignored) {
+                // nothing to do
+            }
+        }
+    }
+}
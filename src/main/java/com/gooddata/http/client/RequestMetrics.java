@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpHost;
+
+/**
+ * Metrics of a single request executed by {@link GoodDataHttpClient}, passed to
+ * {@link MetricsListener#requestCompleted(RequestMetrics)}. Times are in nanoseconds.
+ */
+public final class RequestMetrics {
+
+    private final HttpHost host;
+    private final String method;
+    private final long startNanos;
+    long authWaitNanos;
+    long transportNanos;
+    GoodDataChallengeType challenge = GoodDataChallengeType.UNKNOWN;
+    int retries;
+    int status = -1;
+    long totalNanos;
+
+    RequestMetrics(final HttpHost host, final String method) {
+        this.host = host;
+        this.method = method;
+        startNanos = System.nanoTime();
+    }
+
+    void completed() {
+        totalNanos = System.nanoTime() - startNanos;
+    }
+
+    public HttpHost getHost() {
+        return host;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return time spent waiting for authentication (performed by this or other thread) including backoff
+     */
+    public long getAuthWaitNanos() {
+        return authWaitNanos;
+    }
+
+    /**
+     * @return time spent in the wrapped HTTP client, summed over all attempts
+     */
+    public long getTransportNanos() {
+        return transportNanos;
+    }
+
+    /**
+     * @return last GoodData challenge received, {@link GoodDataChallengeType#UNKNOWN} when not challenged
+     */
+    public GoodDataChallengeType getChallenge() {
+        return challenge;
+    }
+
+    /**
+     * @return number of times the request was replayed after authentication
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return status code of the response returned to the caller, <code>-1</code> when the request failed
+     * with an exception
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return total time of the request
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestMetrics[host=" + host + ", method=" + method + ", status=" + status + ", challenge=" + challenge
+                + ", retries=" + retries + ", authWaitNanos=" + authWaitNanos + ", transportNanos=" + transportNanos
+                + ", totalNanos=" + totalNanos + "]";
+    }
+}
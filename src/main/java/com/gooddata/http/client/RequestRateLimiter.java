@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpHost;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang.Validate.isTrue;
+import static org.apache.commons.lang.Validate.notNull;
+
+/**
+ * Client-side rate limiter of requests, see {@link GoodDataHttpClient#setRateLimiter(RequestRateLimiter)}.
+ * Limits are applied per HTTP host by lock-free token buckets, optionally only to paths matching a pattern.
+ * The first limit matching the request path applies, so add limits of specific paths before the general one.
+ * Path pattern consists of segments separated by <code>/</code>, segment <code>*</code> matches any single
+ * segment and the pattern matches also all the paths below, e.g. <code>/gdc/md/*</code> matches
+ * <code>/gdc/md/project/obj/1</code> and <code>/gdc/app/projects/&#42;/execute</code> matches
+ * <code>/gdc/app/projects/project/execute</code>.
+ * <p>
+ * Requests over the limit wait until a permit is available, requests which would wait longer than
+ * {@link #setMaxWaitMillis(long)} are rejected by the client with synthetic 429 response without being sent.
+ */
+public class RequestRateLimiter {
+
+    private final List<Limit> limits = new CopyOnWriteArrayList<Limit>();
+
+    private volatile long maxWaitNanos = Long.MAX_VALUE;
+
+    /**
+     * Add limit of requests to paths matching the pattern.
+     * @param pathPattern path pattern, <code>null</code> matches all paths
+     * @param permitsPerSecond sustained number of requests per second
+     * @param burst number of requests which can be sent at once
+     * @return this limiter
+     */
+    public RequestRateLimiter addLimit(final String pathPattern, final double permitsPerSecond, final int burst) {
+        isTrue(pathPattern == null || pathPattern.startsWith("/"), "Path pattern must start with /");
+        isTrue(permitsPerSecond > 0, "Permits per second must be positive");
+        isTrue(burst > 0, "Burst must be positive");
+        limits.add(new Limit(pathPattern, permitsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Add limit of all requests.
+     * @param permitsPerSecond sustained number of requests per second
+     * @param burst number of requests which can be sent at once
+     * @return this limiter
+     */
+    public RequestRateLimiter addLimit(final double permitsPerSecond, final int burst) {
+        return addLimit(null, permitsPerSecond, burst);
+    }
+
+    /**
+     * Set how long a request can wait for a permit, requests which would wait longer are rejected.
+     * Requests wait as long as needed by default.
+     * @param maxWaitMillis maximal wait in milliseconds, zero to reject requests over the limit immediately
+     */
+    public void setMaxWaitMillis(final long maxWaitMillis) {
+        isTrue(maxWaitMillis >= 0, "Max wait cannot be negative");
+        this.maxWaitNanos = maxWaitMillis < Long.MAX_VALUE / 1000000 ? TimeUnit.MILLISECONDS.toNanos(maxWaitMillis)
+                : Long.MAX_VALUE;
+    }
+
+    /**
+     * Reserve permit for the request.
+     * @param host HTTP host
+     * @param uri request URI
+     * @param now current time in nanoseconds
+     * @return nanoseconds to wait before sending the request (zero when it can be sent now), or negative number
+     * of nanoseconds after which a permit will be available when the request was rejected
+     */
+    long reserve(final HttpHost host, final String uri, final long now) {
+        notNull(host, "Host cannot be null");
+        final String path = path(uri);
+        for (Limit limit : limits) {
+            if (limit.matches(path)) {
+                return limit.bucket(host, now).reserve(now, maxWaitNanos);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return path of the request URI without query, the URI can be absolute
+     */
+    static String path(final String uri) {
+        int start = 0;
+        if (!uri.startsWith("/")) {
+            final int scheme = uri.indexOf("://");
+            if (scheme >= 0) {
+                final int slash = uri.indexOf('/', scheme + 3);
+                start = slash >= 0 ? slash : uri.length();
+            }
+        }
+        int end = uri.indexOf('?', start);
+        if (end < 0) {
+            end = uri.length();
+        }
+        final int fragment = uri.indexOf('#', start);
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        return start == end ? "/" : uri.substring(start, end);
+    }
+
+    private static final class Limit {
+        private final String[] segments;
+        private final double permitsPerSecond;
+        private final int burst;
+        private final ConcurrentMap<HttpHost, TokenBucket> buckets = new ConcurrentHashMap<HttpHost, TokenBucket>();
+
+        private Limit(final String pathPattern, final double permitsPerSecond, final int burst) {
+            this.segments = pathPattern != null ? split(pathPattern) : null;
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+
+        private static String[] split(final String pathPattern) {
+            final List<String> segments = new ArrayList<String>();
+            for (String segment : pathPattern.split("/")) {
+                if (segment.length() > 0) {
+                    segments.add(segment);
+                }
+            }
+            return segments.toArray(new String[segments.size()]);
+        }
+
+        private boolean matches(final String path) {
+            if (segments == null) {
+                return true;
+            }
+            int position = 0;
+            for (String segment : segments) {
+                if (position >= path.length() || path.charAt(position) != '/') {
+                    return false;
+                }
+                position++;
+                int end = path.indexOf('/', position);
+                if (end < 0) {
+                    end = path.length();
+                }
+                if ("*".equals(segment)) {
+                    if (end == position) {
+                        return false;
+                    }
+                } else if (end - position != segment.length() || !path.startsWith(segment, position)) {
+                    return false;
+                }
+                position = end;
+            }
+            return true;
+        }
+
+        private TokenBucket bucket(final HttpHost host, final long now) {
+            final TokenBucket bucket = buckets.get(host);
+            if (bucket != null) {
+                return bucket;
+            }
+            final TokenBucket created = new TokenBucket(permitsPerSecond, burst, now);
+            final TokenBucket existing = buckets.putIfAbsent(host, created);
+            return existing != null ? existing : created;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang.Validate.isTrue;
+
+/**
+ * Retry policy of idempotent requests failed transiently, see {@link GoodDataHttpClient#setRetryPolicy(RetryPolicy)}.
+ * Requests with idempotent methods are retried on 502, 503 and 504 responses received from the server (not those
+ * generated by the client's own limiters) and on I/O errors other than unknown host and SSL errors. The delay before a retry is taken from <code>Retry-After</code> header, otherwise
+ * it is drawn by decorrelated jitter (random between the initial delay and three times the previous delay, up to
+ * the maximal delay). A request is retried at most {@link #setMaxAttempts(int)} times in total and only while
+ * the retry fits the deadline of the request.
+ * <p>
+ * Retries are limited by a budget shared by all requests using the policy: every request deposits the budget ratio
+ * of a retry and every retry withdraws one, so that retries amplify the traffic at most by the ratio during outages.
+ * The budget holds at most the reserve of retries, which is also available at start.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_DEADLINE_MILLIS = 30 * 1000;
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10 * 1000;
+    public static final double DEFAULT_BUDGET_RATIO = 0.1;
+    public static final int DEFAULT_BUDGET_RESERVE = 10;
+
+    private static final long BUDGET_UNIT = 1000;
+    private static final Set<String> IDEMPOTENT_METHODS = new HashSet<String>(Arrays.asList(
+            "GET", "HEAD", "OPTIONS", "TRACE", "PUT", "DELETE"));
+
+    private final Random random = new Random();
+
+    /**
+     * Retry budget in thousandths of a retry.
+     */
+    private final AtomicLong budget = new AtomicLong(DEFAULT_BUDGET_RESERVE * BUDGET_UNIT);
+
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private volatile long deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+    private volatile long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+    private volatile long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private volatile long budgetDeposit = (long) (DEFAULT_BUDGET_RATIO * BUDGET_UNIT);
+    private volatile long budgetLimit = DEFAULT_BUDGET_RESERVE * BUDGET_UNIT;
+
+    /**
+     * Set maximal number of attempts of a request, including the first one. Default is 3.
+     * @param maxAttempts maximal number of attempts, must be positive
+     */
+    public void setMaxAttempts(final int maxAttempts) {
+        isTrue(maxAttempts > 0, "Max attempts must be positive");
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Set time since the first attempt of a request after which it is not retried anymore. Default is 30 seconds.
+     * @param deadlineMillis deadline in milliseconds
+     */
+    public void setDeadlineMillis(final long deadlineMillis) {
+        isTrue(deadlineMillis > 0, "Deadline must be positive");
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Set bounds of the delay before a retry used when the response has no <code>Retry-After</code> header.
+     * Default is 100 milliseconds to 10 seconds.
+     * @param initialDelayMillis minimal delay in milliseconds
+     * @param maxDelayMillis maximal delay in milliseconds
+     */
+    public void setDelay(final long initialDelayMillis, final long maxDelayMillis) {
+        isTrue(initialDelayMillis >= 0, "Initial delay cannot be negative");
+        isTrue(maxDelayMillis >= initialDelayMillis, "Max delay cannot be lower than initial delay");
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Set retry budget. Default is ratio 0.1 with reserve of 10 retries.
+     * @param ratio retries allowed per request
+     * @param reserve maximal number of retries saved in the budget
+     */
+    public void setRetryBudget(final double ratio, final int reserve) {
+        isTrue(ratio >= 0, "Budget ratio cannot be negative");
+        isTrue(reserve > 0, "Budget reserve must be positive");
+        this.budgetDeposit = (long) (ratio * BUDGET_UNIT);
+        this.budgetLimit = reserve * BUDGET_UNIT;
+        budget.set(budgetLimit);
+    }
+
+    long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    boolean isRetryable(final HttpRequest request) {
+        return IDEMPOTENT_METHODS.contains(request.getRequestLine().getMethod());
+    }
+
+    boolean isRetryable(final HttpResponse response) {
+        if (response instanceof SyntheticHttpResponse) {
+            // rejected by the client itself, e.g. by the concurrency limiter, not a server outage
+            return false;
+        }
+        final int status = response.getStatusLine().getStatusCode();
+        return status == HttpStatus.SC_BAD_GATEWAY || status == HttpStatus.SC_SERVICE_UNAVAILABLE
+                || status == HttpStatus.SC_GATEWAY_TIMEOUT;
+    }
+
+    boolean isRetryable(final IOException e) {
+        if (e instanceof UnknownHostException || e instanceof SSLException) {
+            return false;
+        }
+        // thread interrupted, but timeouts are retryable
+        return !(e instanceof InterruptedIOException)
+                || e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException;
+    }
+
+    /**
+     * Record a request, deposits to the retry budget.
+     */
+    void requested() {
+        final long deposit = budgetDeposit;
+        long current;
+        do {
+            current = budget.get();
+            if (current >= budgetLimit) {
+                return;
+            }
+        } while (!budget.compareAndSet(current, Math.min(current + deposit, budgetLimit)));
+    }
+
+    /**
+     * Decide whether to retry and withdraw the retry from the budget.
+     * @param attempts number of attempts performed
+     * @param previousDelayMillis delay before the previous retry, initial delay before the first retry
+     * @param retryAfterMillis delay requested by the server, negative when not requested
+     * @param remainingMillis time remaining until the deadline
+     * @return delay before the retry in milliseconds, negative when the request should not be retried
+     */
+    long retryDelay(final int attempts, final long previousDelayMillis, final long retryAfterMillis,
+                    final long remainingMillis) {
+        if (attempts >= maxAttempts) {
+            return -1;
+        }
+        final long delay = retryAfterMillis >= 0 ? retryAfterMillis : jitter(previousDelayMillis);
+        if (delay > remainingMillis || !withdraw()) {
+            return -1;
+        }
+        return delay;
+    }
+
+    private long jitter(final long previousDelayMillis) {
+        final long initial = initialDelayMillis;
+        final long upper = Math.max(Math.min(previousDelayMillis * 3, maxDelayMillis), initial);
+        return initial + (long) (random.nextDouble() * (upper - initial));
+    }
+
+    private boolean withdraw() {
+        long current;
+        do {
+            current = budget.get();
+            if (current < BUDGET_UNIT) {
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - BUDGET_UNIT));
+        return true;
+    }
+
+    /**
+     * @return delay requested by <code>Retry-After</code> header of the response in milliseconds,
+     * <code>-1</code> when the header is missing or invalid
+     */
+    static long retryAfterMillis(final HttpResponse response, final long now) {
+        final Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header == null) {
+            return -1;
+        }
+        final String value = header.getValue().trim();
+        try {
+            final long seconds = Long.parseLong(value);
+            return seconds >= 0 && seconds < Long.MAX_VALUE / 1000 ? seconds * 1000 : -1;
+        } catch (NumberFormatException e) {
+            final Date date = DateUtils.parseDate(value);
+            return date != null ? Math.max(date.getTime() - now, 0) : -1;
+        }
+    }
+}
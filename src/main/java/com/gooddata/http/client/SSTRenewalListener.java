@@ -0,0 +1,18 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+/**
+ * Listener notified about super-secure token (SST) renewed in background.
+ */
+public interface SSTRenewalListener {
+
+    /**
+     * Called when a new SST was obtained, the previous one stays valid until this method returns.
+     * @param sst new SST
+     */
+    void sstRenewed(String sst);
+
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.io.IOException;
+
+/**
+ * Token cache shared by several processes. {@link GoodDataHttpClient} holds the lock while it authenticates,
+ * so that only one process obtains new tokens and the others reuse them from the cache.
+ */
+public interface SharedTokenCache extends TokenCache {
+
+    /**
+     * Acquire exclusive lock of the cache, waiting until it is released by other processes and threads.
+     * The lock is reentrant, {@link #load()} and {@link #store(GoodDataTokens)} can be called while holding it.
+     */
+    void lock() throws IOException;
+
+    /**
+     * Release the lock acquired by {@link #lock()}.
+     */
+    void unlock() throws IOException;
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only byte buffer kept in pooled memory chunks until it exceeds the memory threshold,
+ * then moved to a temporary file accessed through {@link FileChannel}. Not thread safe.
+ */
+class SpillableBuffer {
+
+    private final ByteChunkPool pool;
+    private final long memoryThreshold;
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private long size;
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+
+    /**
+     * @param pool pool of memory chunks
+     * @param memoryThreshold maximal number of bytes kept in memory
+     */
+    SpillableBuffer(final ByteChunkPool pool, final long memoryThreshold) {
+        this.pool = pool;
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    long size() {
+        return size;
+    }
+
+    boolean isSpilled() {
+        return channel != null;
+    }
+
+    void write(final byte[] bytes, final int offset, final int length) throws IOException {
+        if (channel == null && size + length > memoryThreshold) {
+            spill();
+        }
+        if (channel != null) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            long position = size;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            size = position;
+            return;
+        }
+        final int chunkSize = pool.getChunkSize();
+        int written = 0;
+        while (written < length) {
+            if (chunks.size() * (long) chunkSize == size) {
+                chunks.add(pool.acquire());
+            }
+            final int chunkOffset = (int) (size % chunkSize);
+            final int count = Math.min(length - written, chunkSize - chunkOffset);
+            System.arraycopy(bytes, offset + written, chunks.get(chunks.size() - 1), chunkOffset, count);
+            written += count;
+            size += count;
+        }
+    }
+
+    /**
+     * Write the whole buffer content to the given stream.
+     */
+    void writeTo(final OutputStream out) throws IOException {
+        if (channel != null) {
+            final WritableByteChannel target = Channels.newChannel(out);
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+        } else {
+            final int chunkSize = pool.getChunkSize();
+            long remaining = size;
+            for (byte[] chunk : chunks) {
+                final int count = (int) Math.min(remaining, chunkSize);
+                out.write(chunk, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+
+    /**
+     * Read buffer content starting at the given position.
+     * @return number of bytes read or -1 when the position is at the end of the buffer
+     */
+    int read(final long position, final byte[] bytes, final int offset, final int length) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        final int count = (int) Math.min(length, size - position);
+        if (channel != null) {
+            return channel.read(ByteBuffer.wrap(bytes, offset, count), position);
+        }
+        final int chunkSize = pool.getChunkSize();
+        final int chunkOffset = (int) (position % chunkSize);
+        final int chunkCount = Math.min(count, chunkSize - chunkOffset);
+        System.arraycopy(chunks.get((int) (position / chunkSize)), chunkOffset, bytes, offset, chunkCount);
+        return chunkCount;
+    }
+
+    /**
+     * Stream over the buffer content, it sees data written after it was created.
+     */
+    InputStream getInputStream() {
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() throws IOException {
+                final byte[] single = new byte[1];
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                final int count = SpillableBuffer.this.read(position, bytes, offset, length);
+                if (count > 0) {
+                    position += count;
+                }
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Release memory chunks and delete the temporary file.
+     */
+    void dispose() {
+        releaseChunks();
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException ignored) {
+                // nothing to do
+            }
+            randomAccessFile = null;
+            channel = null;
+        }
+        if (file != null) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+        size = 0;
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile("gooddata-entity", ".tmp");
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        final int chunkSize = pool.getChunkSize();
+        long position = 0;
+        for (byte[] chunk : chunks) {
+            final ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, (int) Math.min(size - position, chunkSize));
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+        releaseChunks();
+    }
+
+    private void releaseChunks() {
+        for (byte[] chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+    }
+}
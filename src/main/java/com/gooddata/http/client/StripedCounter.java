@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter updated by many threads without contention, each thread updates one of the stripes chosen by its id
+ * (stripes are kept on separate cache lines). Reading sums all stripes. Alternatively the counter keeps maximum
+ * of the values passed to {@link #updateMax(long)} per stripe, merged by {@link #max()}; an instance is used
+ * either as a sum or as a maximum.
+ */
+class StripedCounter {
+
+    /**
+     * Distance of the stripes in the array, 8 longs = 64 bytes cache line.
+     */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        mask = stripes - 1;
+        cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+    void add(final long delta) {
+        cells.addAndGet(index(), delta);
+    }
+
+    void updateMax(final long value) {
+        final int index = index();
+        long current;
+        while (value > (current = cells.get(index))) {
+            if (cells.compareAndSet(index, current, value)) {
+                break;
+            }
+        }
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    void decrement() {
+        add(-1);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    long max() {
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            max = Math.max(max, cells.get(i));
+        }
+        return max;
+    }
+
+    void reset() {
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            cells.set(i, 0);
+        }
+    }
+
+    private int index() {
+        final long id = Thread.currentThread().getId();
+        return ((int) (id ^ (id >>> 32)) & mask) * PADDING;
+    }
+}
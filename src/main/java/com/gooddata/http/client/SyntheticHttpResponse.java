@@ -0,0 +1,20 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.ProtocolVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+/**
+ * Response generated by the client itself without being received from the server (e.g. request rejected
+ * by the concurrency limiter or the rate limiter), never retried by {@link RetryPolicy}.
+ */
+class SyntheticHttpResponse extends BasicHttpResponse {
+
+    SyntheticHttpResponse(final ProtocolVersion version, final int status, final String reason) {
+        super(new BasicStatusLine(version, status, reason));
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket implemented by generic cell rate algorithm (GCRA). The whole state is a single
+ * theoretical arrival time advanced by compare-and-set, every permit moves it by the emission interval.
+ * A request is admitted when the theoretical arrival time is at most burst tolerance ahead of now.
+ */
+final class TokenBucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * @param permitsPerSecond sustained rate
+     * @param burst number of permits available at once
+     * @param now current time in nanoseconds
+     */
+    TokenBucket(final double permitsPerSecond, final int burst, final long now) {
+        intervalNanos = Math.max((long) (1000000000L / permitsPerSecond), 1);
+        toleranceNanos = intervalNanos * (burst - 1);
+        theoreticalArrival = new AtomicLong(now);
+    }
+
+    /**
+     * Reserve a permit unless it would be available later than the given wait.
+     * @param now current time in nanoseconds
+     * @param maxWaitNanos maximal acceptable wait in nanoseconds
+     * @return nanoseconds to wait before using the reserved permit (zero when available now), or negative number
+     * of nanoseconds after which the permit will be available when it was not reserved
+     */
+    long reserve(final long now, final long maxWaitNanos) {
+        while (true) {
+            final long current = theoreticalArrival.get();
+            final long start = current - now > 0 ? current : now;
+            final long wait = start - toleranceNanos - now;
+            if (wait > maxWaitNanos) {
+                return -wait;
+            }
+            if (theoreticalArrival.compareAndSet(current, start + intervalNanos)) {
+                return wait > 0 ? wait : 0;
+            }
+        }
+    }
+}
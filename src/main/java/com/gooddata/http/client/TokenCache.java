@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.io.IOException;
+
+/**
+ * Persistent cache of GoodData tokens, lets a restarted client reuse still valid SST and TT instead of logging in.
+ * See {@link GoodDataHttpClient#setTokenCache(TokenCache)}.
+ */
+public interface TokenCache {
+
+    /**
+     * Load cached tokens.
+     * @return cached tokens or <code>null</code> when there are none
+     */
+    GoodDataTokens load() throws IOException;
+
+    /**
+     * Store tokens replacing the cached ones.
+     * @param tokens tokens to store
+     */
+    void store(GoodDataTokens tokens) throws IOException;
+
+}
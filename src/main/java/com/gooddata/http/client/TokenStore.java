@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.io.IOException;
+
+/**
+ * Store of SST shared by clients running on several nodes. {@link GoodDataHttpClient} consults the store before
+ * obtaining SST by {@link SSTRetrievalStrategy}: SST stored by other node is reused, otherwise the client leases
+ * the entry by compare-and-set, obtains SST and stores it, while the other clients wait for the lease to end.
+ * Implementations must be thread-safe.
+ */
+public interface TokenStore {
+
+    /**
+     * Get current entry.
+     * @return current entry, {@link TokenStoreEntry#EMPTY} when nothing was stored
+     */
+    TokenStoreEntry get() throws IOException;
+
+    /**
+     * Replace the current entry when its version equals the version of the expected entry.
+     * @param expected entry returned by {@link #get()} or by previous update
+     * @param update new entry
+     * @return true when the entry was replaced, false when the entry was changed since the expected one was read
+     */
+    boolean compareAndSet(TokenStoreEntry expected, TokenStoreEntry update) throws IOException;
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Immutable versioned entry of {@link TokenStore}, holding the shared tokens and the lease of the client currently
+ * obtaining new SST. Every update increments the version.
+ */
+public final class TokenStoreEntry {
+
+    /**
+     * Entry of an empty store.
+     */
+    public static final TokenStoreEntry EMPTY = new TokenStoreEntry(0, null, 0);
+
+    private final long version;
+    private final GoodDataTokens tokens;
+    private final long leaseExpiration;
+
+    /**
+     * Construct object.
+     * @param version entry version
+     * @param tokens shared tokens, can be null
+     * @param leaseExpiration lease expiration in milliseconds since epoch, <code>0</code> when not leased
+     */
+    public TokenStoreEntry(final long version, final GoodDataTokens tokens, final long leaseExpiration) {
+        this.version = version;
+        this.tokens = tokens;
+        this.leaseExpiration = leaseExpiration;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public GoodDataTokens getTokens() {
+        return tokens;
+    }
+
+    public long getLeaseExpiration() {
+        return leaseExpiration;
+    }
+
+    /**
+     * @param now current time in milliseconds since epoch
+     * @return true when the entry is leased and the lease did not expire at the given time
+     */
+    public boolean isLeased(final long now) {
+        return leaseExpiration > now;
+    }
+
+    /**
+     * @return next version of the entry leased until the given time
+     */
+    public TokenStoreEntry withLease(final long leaseExpiration) {
+        return new TokenStoreEntry(version + 1, tokens, leaseExpiration);
+    }
+
+    /**
+     * @return next version of the entry with the given tokens and without lease
+     */
+    public TokenStoreEntry withTokens(final GoodDataTokens tokens) {
+        return new TokenStoreEntry(version + 1, tokens, 0);
+    }
+
+    void writeTo(final DataOutput out) throws IOException {
+        out.writeLong(version);
+        out.writeLong(leaseExpiration);
+        out.writeBoolean(tokens != null);
+        if (tokens != null) {
+            tokens.writeTo(out);
+        }
+    }
+
+    static TokenStoreEntry readFrom(final DataInput in) throws IOException {
+        final long version = in.readLong();
+        final long leaseExpiration = in.readLong();
+        final GoodDataTokens tokens = in.readBoolean() ? GoodDataTokens.readFrom(in) : null;
+        return new TokenStoreEntry(version, tokens, leaseExpiration);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final TokenStoreEntry that = (TokenStoreEntry) o;
+        return version == that.version && leaseExpiration == that.leaseExpiration
+                && (tokens != null ? tokens.equals(that.tokens) : that.tokens == null);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (version ^ (version >>> 32));
+        result = 31 * result + (tokens != null ? tokens.hashCode() : 0);
+        result = 31 * result + (int) (leaseExpiration ^ (leaseExpiration >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "TokenStoreEntry[version=" + version + ", tokens=" + tokens + ", leaseExpiration=" + leaseExpiration + "]";
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void acquire_rejectedOverLimit() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10);
+        limiter.setMaxWaitMillis(0);
+
+        assertTrue(limiter.acquire());
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire());
+        assertEquals(2, limiter.getInFlight());
+
+        limiter.release();
+        assertTrue(limiter.acquire());
+    }
+
+    @Test
+    public void acquire_waitsForRelease() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1);
+        assertTrue(limiter.acquire());
+        final AtomicBoolean acquired = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    acquired.set(limiter.acquire());
+                } catch (Exception ignored) {
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        waiter.start();
+
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        limiter.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(acquired.get());
+    }
+
+    @Test
+    public void release_increasesWhileUtilizedAndRttFlat() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 3);
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+            limiter.acquire();
+            limiter.release(RTT, false, 0);
+            limiter.release(RTT, false, 0);
+        }
+        assertEquals(3, limiter.getLimit());
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire();
+            limiter.acquire();
+            limiter.release(RTT, false, 0);
+            limiter.release(RTT, false, 0);
+        }
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void release_notIncreasedWhenNotUtilized() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 20);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(RTT, false, 0);
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void release_decreasesOncePerRtt() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 1, 20);
+        long now = System.nanoTime();
+        limiter.acquire();
+        limiter.release(RTT, true, now);
+        assertEquals(18, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(RTT, true, now + RTT / 2);
+        assertEquals(18, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(RTT, true, now + RTT);
+        assertEquals(16, limiter.getLimit());
+    }
+
+    @Test
+    public void release_decreasesOnRttJump() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10);
+        final long now = System.nanoTime();
+        limiter.acquire();
+        limiter.release(RTT, false, now);
+        limiter.acquire();
+        limiter.release(RTT * 3, false, now);
+
+        assertEquals(9, limiter.getLimit());
+    }
+
+    @Test
+    public void release_notBelowMinLimit() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 2, 10);
+        limiter.acquire();
+        limiter.release(RTT, true, System.nanoTime());
+
+        assertEquals(2, limiter.getLimit());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.cookie.SM;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncLoginSSTRetrievalStrategyTest {
+
+    public static final String PASSWORD = "mysecret";
+    public static final String LOGIN = "user@server.com";
+
+    private AsyncLoginSSTRetrievalStrategy sstStrategy;
+
+    @Mock
+    public HttpAsyncClient httpClient;
+
+    private HttpHost host;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        host = new HttpHost("server.com", 123);
+        sstStrategy = new AsyncLoginSSTRetrievalStrategy(httpClient, host, LOGIN, PASSWORD);
+    }
+
+    @Test
+    public void obtainSst() throws Exception {
+        final HttpResponse response = createResponse(HttpStatus.SC_OK);
+        response.setHeader(SM.SET_COOKIE, "GDCAuthSST=xxxtopsecretcookieSST; path=/gdc/account; secure; HttpOnly");
+        respondWith(response);
+
+        @SuppressWarnings("unchecked")
+        final FutureCallback<String> callback = mock(FutureCallback.class);
+        assertEquals("xxxtopsecretcookieSST", sstStrategy.obtainSst(callback).get());
+        verify(callback).completed("xxxtopsecretcookieSST");
+
+        final ArgumentCaptor<HttpRequest> postCaptor = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(httpClient).execute(eq(host), postCaptor.capture(), anyCallback());
+
+        final HttpPost post = (HttpPost) postCaptor.getValue();
+        final String postBody = "{\"postUserLogin\":{\"login\":\"" + LOGIN + "\",\"password\":\"" + PASSWORD + "\",\"remember\":0}}";
+        final StringWriter writer = new StringWriter();
+        IOUtils.copy(post.getEntity().getContent(), writer, "UTF-8");
+
+        assertEquals(postBody, writer.toString());
+        assertEquals("/gdc/account/login", post.getURI().getPath());
+    }
+
+    @Test
+    public void obtainSst_badLogin() throws Exception {
+        respondWith(createResponse(HttpStatus.SC_BAD_REQUEST));
+
+        try {
+            sstStrategy.obtainSst(null).get();
+            fail("Expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof GoodDataAuthException);
+        }
+    }
+
+    @Test
+    public void obtainSst_ioFailure() throws Exception {
+        when(httpClient.execute(isA(HttpHost.class), isA(HttpRequest.class), anyCallback()))
+                .thenAnswer(new Answer<Future<HttpResponse>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Future<HttpResponse> answer(final InvocationOnMock invocation) {
+                final BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(
+                        (FutureCallback<HttpResponse>) invocation.getArguments()[2]);
+                future.failed(new IOException("connection refused"));
+                return future;
+            }
+        });
+
+        try {
+            sstStrategy.obtainSst(null).get();
+            fail("Expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void cancel() {
+        final BasicFuture<HttpResponse> login = new BasicFuture<HttpResponse>(null);
+        when(httpClient.execute(isA(HttpHost.class), isA(HttpRequest.class), anyCallback()))
+                .thenReturn(login);
+
+        sstStrategy.obtainSst(null).cancel(true);
+        assertTrue(login.isCancelled());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FutureCallback<HttpResponse> anyCallback() {
+        return any(FutureCallback.class);
+    }
+
+    private static HttpResponse createResponse(final int status) {
+        return new BasicHttpResponse(new BasicStatusLine(new ProtocolVersion("https", 1, 1), status, "reason"));
+    }
+
+    private void respondWith(final HttpResponse response) {
+        when(httpClient.execute(isA(HttpHost.class), isA(HttpRequest.class), anyCallback()))
+                .thenAnswer(new Answer<Future<HttpResponse>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Future<HttpResponse> answer(final InvocationOnMock invocation) {
+                final BasicFuture<HttpResponse> future = new BasicFuture<HttpResponse>(
+                        (FutureCallback<HttpResponse>) invocation.getArguments()[2]);
+                future.completed(response);
+                return future;
+            }
+        });
+    }
+}
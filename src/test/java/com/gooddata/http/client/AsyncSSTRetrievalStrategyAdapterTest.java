@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AsyncSSTRetrievalStrategyAdapterTest {
+
+    private ExecutorService executor;
+
+    private SSTRetrievalStrategy sstStrategy;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        sstStrategy = mock(SSTRetrievalStrategy.class);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void obtainSst() throws Exception {
+        when(sstStrategy.obtainSst()).thenReturn("sst");
+
+        assertEquals("sst", new AsyncSSTRetrievalStrategyAdapter(sstStrategy, executor).obtainSst(null)
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void obtainSst_failure() throws Exception {
+        when(sstStrategy.obtainSst()).thenThrow(new IOException("connection refused"));
+
+        try {
+            new AsyncSSTRetrievalStrategyAdapter(sstStrategy, executor).obtainSst(null).get(5, TimeUnit.SECONDS);
+            fail("Expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        when(sstStrategy.obtainSst()).thenReturn("sst");
+
+        final SSTRetrievalStrategy blocking = new BlockingSSTRetrievalStrategy(
+                new AsyncSSTRetrievalStrategyAdapter(sstStrategy, executor));
+        assertEquals("sst", blocking.obtainSst());
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Test;
+
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class AsyncSimpleSSTRetrievalStrategyTest {
+
+    public static final String TOKEN = "sst token";
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void obtainSst() throws Exception {
+        final FutureCallback<String> callback = mock(FutureCallback.class);
+        final Future<String> sst = new AsyncSimpleSSTRetrievalStrategy(TOKEN).obtainSst(callback);
+
+        assertTrue(sst.isDone());
+        assertEquals(TOKEN, sst.get());
+        verify(callback).completed(TOKEN);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_nullSst() {
+        new AsyncSimpleSSTRetrievalStrategy(null);
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+
+public class AuthHttpClientsTest {
+
+    private StandInServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void create_invalidMaxConnections() {
+        AuthHttpClients.create(0, 1000);
+    }
+
+    /**
+     * Authentication succeeds while the only connection of the wrapped client is leased by a request whose
+     * response was not consumed yet.
+     */
+    @Test
+    public void authenticationNotBlockedByExhaustedPool() throws Exception {
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(1);
+        connectionManager.setDefaultMaxPerRoute(1);
+        final CloseableHttpClient httpClient = HttpClientBuilder.create().setConnectionManager(connectionManager).build();
+        final CloseableHttpClient authHttpClient = AuthHttpClients.createDefault();
+        try {
+            final GoodDataHttpClient client = new GoodDataHttpClient(httpClient,
+                    new LoginSSTRetrievalStrategy(authHttpClient, server.getHost(), StandInServer.LOGIN, StandInServer.PASSWORD));
+            client.setAuthHttpClient(authHttpClient);
+            final HttpResponse first = client.execute(server.getHost(), new HttpGet(StandInServer.PROJECTS_URL));
+            assertEquals(HttpStatus.SC_OK, first.getStatusLine().getStatusCode());
+            assertEquals(1, connectionManager.getTotalStats().getLeased());
+
+            server.expireTt();
+            final ObjectName name = new ObjectName("com.gooddata.http.client:type=AuthHttpClientsTest");
+            client.registerMBean(ManagementFactory.getPlatformMBeanServer(), name);
+            try {
+                ManagementFactory.getPlatformMBeanServer().invoke(name, "forceTtRefresh", null, null);
+            } finally {
+                client.unregisterMBean();
+            }
+            assertEquals(2, server.getTtRefreshes());
+            EntityUtils.consume(first.getEntity());
+        } finally {
+            httpClient.close();
+            authHttpClient.close();
+        }
+    }
+}
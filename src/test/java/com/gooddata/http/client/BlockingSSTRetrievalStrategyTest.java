@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BlockingSSTRetrievalStrategyTest {
+
+    @Test
+    public void obtainSst() throws IOException {
+        assertEquals("sst", new BlockingSSTRetrievalStrategy(new AsyncSimpleSSTRetrievalStrategy("sst")).obtainSst());
+    }
+
+    @Test(expected = IOException.class)
+    public void obtainSst_ioFailure() throws IOException {
+        final BasicFuture<String> sst = new BasicFuture<String>(null);
+        sst.failed(new IOException("connection refused"));
+
+        new BlockingSSTRetrievalStrategy(strategyReturning(sst)).obtainSst();
+    }
+
+    @Test(expected = GoodDataAuthException.class)
+    public void obtainSst_authFailure() throws IOException {
+        final BasicFuture<String> sst = new BasicFuture<String>(null);
+        sst.failed(new GoodDataAuthException("Unable to login: 401"));
+
+        new BlockingSSTRetrievalStrategy(strategyReturning(sst)).obtainSst();
+    }
+
+    @Test
+    public void obtainSst_interrupted() throws IOException {
+        final BasicFuture<String> sst = new BasicFuture<String>(null);
+        Thread.currentThread().interrupt();
+        try {
+            new BlockingSSTRetrievalStrategy(strategyReturning(sst)).obtainSst();
+            fail("Expected interruption");
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+            assertTrue(sst.isCancelled());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_nullStrategy() {
+        new BlockingSSTRetrievalStrategy(null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AsyncSSTRetrievalStrategy strategyReturning(final BasicFuture<String> sst) {
+        final AsyncSSTRetrievalStrategy strategy = mock(AsyncSSTRetrievalStrategy.class);
+        when(strategy.obtainSst(any(FutureCallback.class))).thenReturn(sst);
+        return strategy;
+    }
+}
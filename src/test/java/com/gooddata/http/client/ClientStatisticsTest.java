@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClientStatisticsTest {
+
+    private static final long INTERVAL = ClientStatistics.RATE_INTERVAL_NANOS;
+
+    @Test
+    public void getRequestsPerSecond_notResetByReads() {
+        final ClientStatistics statistics = new ClientStatistics(null);
+        final long start = System.nanoTime();
+        complete(statistics, 100);
+        statistics.getRequestsPerSecond(start + INTERVAL);
+        complete(statistics, 50);
+
+        // several readers within the interval get the rate of the last completed interval
+        assertEquals(statistics.getRequestsPerSecond(start + INTERVAL + 1), statistics.getRequestsPerSecond(start + INTERVAL + 2), 0);
+        assertEquals(statistics.getRequestsPerSecond(start + INTERVAL + 1), statistics.getRequestsPerSecond(start + 2 * INTERVAL - 1), 0);
+
+        assertEquals(50 * 1e9 / INTERVAL, statistics.getRequestsPerSecond(start + 2 * INTERVAL), 0.01);
+        assertEquals(50 * 1e9 / INTERVAL, statistics.getRequestsPerSecond(start + 2 * INTERVAL + 1), 0.01);
+    }
+
+    private static void complete(final ClientStatistics statistics, final int requests) {
+        for (int i = 0; i < requests; i++) {
+            statistics.requestStarted();
+            statistics.requestCompleted();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpHost;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EncryptedFileTokenCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private GoodDataTokens tokens;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "tokens");
+        tokens = new GoodDataTokens(new HttpHost("secure.gooddata.com", 443, "https"), "sst", "tt", 1234567890L);
+    }
+
+    @Test
+    public void load_empty() throws IOException {
+        assertNull(new EncryptedFileTokenCache(file).load());
+    }
+
+    @Test
+    public void storeAndLoad() throws IOException {
+        new EncryptedFileTokenCache(file).store(tokens);
+
+        assertTrue(new File(folder.getRoot(), "tokens.key").exists());
+        assertEquals(tokens, new EncryptedFileTokenCache(file).load());
+        assertFalse(FileUtils.readFileToString(file, "ISO-8859-1").contains("sst"));
+    }
+
+    /**
+     * Clients started at once create the key concurrently, none of them may see partially written key file.
+     */
+    @Test
+    public void load_keyCreatedConcurrently() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final File roundFile = new File(folder.getRoot(), "tokens" + round);
+            final int threads = 8;
+            final CyclicBarrier barrier = new CyclicBarrier(threads);
+            final ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                final List<Future<Void>> results = new ArrayList<Future<Void>>();
+                for (int i = 0; i < threads; i++) {
+                    results.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            barrier.await();
+                            new EncryptedFileTokenCache(roundFile).store(tokens);
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> result : results) {
+                    // fails with ExecutionException when the key file was read partially written
+                    result.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            new EncryptedFileTokenCache(roundFile).store(tokens);
+            assertEquals(tokens, new EncryptedFileTokenCache(roundFile).load());
+        }
+    }
+
+    @Test
+    public void store_cachesInitializingConcurrentlyShareKey() throws Exception {
+        final int caches = 8;
+        for (int round = 0; round < 50; round++) {
+            final File keyFile = new File(folder.getRoot(), "key" + round);
+            final CyclicBarrier barrier = new CyclicBarrier(caches);
+            final ExecutorService executor = Executors.newFixedThreadPool(caches);
+            try {
+                final List<Future<Void>> results = new ArrayList<Future<Void>>();
+                for (int i = 0; i < caches; i++) {
+                    final GoodDataTokens cacheTokens = tokens.withTt("tt" + i, -1);
+                    results.add(executor.submit(store(barrier, cacheFile(round, i), keyFile, cacheTokens)));
+                }
+                for (Future<Void> result : results) {
+                    result.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            for (int i = 0; i < caches; i++) {
+                // fails when the cache was written with a key replaced by another cache
+                final EncryptedFileTokenCache cache = new EncryptedFileTokenCache(cacheFile(round, i), keyFile);
+                assertEquals(tokens.withTt("tt" + i, -1), cache.load());
+            }
+        }
+    }
+
+    @Test
+    public void storeAndLoad_withoutTt() throws IOException {
+        final GoodDataTokens sstOnly = new GoodDataTokens(new HttpHost("localhost", 8080, "http"), "sst", null, -1);
+        final EncryptedFileTokenCache cache = new EncryptedFileTokenCache(file);
+        cache.store(tokens);
+        cache.store(sstOnly);
+
+        assertEquals(sstOnly, cache.load());
+    }
+
+    @Test
+    public void load_tampered() throws IOException {
+        new EncryptedFileTokenCache(file).store(tokens);
+        final byte[] data = FileUtils.readFileToByteArray(file);
+        data[30] ^= 1;
+        FileUtils.writeByteArrayToFile(file, data);
+
+        assertNull(new EncryptedFileTokenCache(file).load());
+    }
+
+    @Test
+    public void load_differentKey() throws IOException {
+        new EncryptedFileTokenCache(file).store(tokens);
+
+        assertNull(new EncryptedFileTokenCache(file, new File(folder.getRoot(), "other.key")).load());
+    }
+
+    @Test
+    public void load_truncated() throws IOException {
+        FileUtils.writeByteArrayToFile(file, new byte[10]);
+
+        assertNull(new EncryptedFileTokenCache(file).load());
+    }
+
+    private File cacheFile(final int round, final int cache) {
+        return new File(folder.getRoot(), "tokens" + round + "-" + cache);
+    }
+
+    private static Callable<Void> store(final CyclicBarrier barrier, final File file, final File keyFile,
+                                        final GoodDataTokens tokens) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                final EncryptedFileTokenCache cache = new EncryptedFileTokenCache(file, keyFile);
+                barrier.await();
+                cache.store(tokens);
+                return null;
+            }
+        };
+    }
+}
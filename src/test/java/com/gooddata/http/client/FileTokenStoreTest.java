@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpHost;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileTokenStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private GoodDataTokens tokens;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "tokens");
+        tokens = new GoodDataTokens(new HttpHost("secure.gooddata.com", 443, "https"), "sst", null, -1);
+    }
+
+    @Test
+    public void get_empty() throws IOException {
+        assertEquals(TokenStoreEntry.EMPTY, new FileTokenStore(file).get());
+    }
+
+    @Test
+    public void compareAndSet_visibleToOtherInstance() throws IOException {
+        final TokenStoreEntry leased = TokenStoreEntry.EMPTY.withLease(1000);
+        final FileTokenStore store = new FileTokenStore(file);
+        assertTrue(store.compareAndSet(TokenStoreEntry.EMPTY, leased));
+        assertTrue(store.compareAndSet(leased, leased.withTokens(tokens)));
+
+        assertEquals(new TokenStoreEntry(2, tokens, 0), new FileTokenStore(file).get());
+    }
+
+    @Test
+    public void compareAndSet_stale() throws IOException {
+        final FileTokenStore store = new FileTokenStore(file);
+        assertTrue(store.compareAndSet(TokenStoreEntry.EMPTY, TokenStoreEntry.EMPTY.withTokens(tokens)));
+
+        assertFalse(new FileTokenStore(file).compareAndSet(TokenStoreEntry.EMPTY, TokenStoreEntry.EMPTY.withLease(1000)));
+        assertEquals(new TokenStoreEntry(1, tokens, 0), store.get());
+    }
+
+    @Test
+    public void constructor_locksOfUnusedStoresReleased() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            new FileTokenStore(new File(folder.getRoot(), "tokens" + i));
+        }
+        final long deadline = System.currentTimeMillis() + 10000;
+        do {
+            System.gc();
+            Thread.sleep(10);
+            new FileTokenStore(file);
+        } while (FileTokenStore.lockCount() > 50 && System.currentTimeMillis() < deadline);
+
+        assertTrue(FileTokenStore.lockCount() <= 50);
+    }
+
+    @Test
+    public void get_invalidFile() throws IOException {
+        FileUtils.writeStringToFile(file, "garbage");
+
+        assertEquals(TokenStoreEntry.EMPTY, new FileTokenStore(file).get());
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GoodDataChallengeTest {
+
+    @Test
+    public void scan_tt() {
+        assertEquals(GoodDataChallengeType.TT, GoodDataChallenge.scan("GoodData realm=\"GoodData API\" cookie=GDCAuthTT"));
+    }
+
+    @Test
+    public void scan_sstCommaSeparated() {
+        assertEquals(GoodDataChallengeType.SST, GoodDataChallenge.scan("gooddata realm=\"a \\\"b\\\"\", cookie=GDCAuthSST"));
+    }
+
+    @Test
+    public void scan_withoutCookie() {
+        assertEquals(GoodDataChallengeType.UNKNOWN, GoodDataChallenge.scan("GoodData realm=\"GoodData API\""));
+    }
+
+    @Test
+    public void scan_otherScheme() {
+        assertNull(GoodDataChallenge.scan("Basic realm=\"GoodData API\" cookie=GDCAuthTT"));
+        assertNull(GoodDataChallenge.scan("GoodDataX cookie=GDCAuthTT"));
+        assertNull(GoodDataChallenge.scan(""));
+    }
+
+    @Test
+    public void scan_combinedChallenges() {
+        assertEquals(GoodDataChallengeType.TT,
+                GoodDataChallenge.scan("Basic realm=\"x\", GoodData realm=\"GoodData API\" cookie=GDCAuthTT"));
+        assertEquals(GoodDataChallengeType.SST,
+                GoodDataChallenge.scan("Negotiate, GoodData realm=\"GoodData API\", cookie=GDCAuthSST, Basic realm=\"x\""));
+        assertEquals(GoodDataChallengeType.UNKNOWN,
+                GoodDataChallenge.scan("GoodData realm=\"GoodData API\", Basic realm=\"x\" cookie=GDCAuthTT"));
+    }
+
+    @Test
+    public void scan_malformed() {
+        assertEquals(GoodDataChallengeType.UNKNOWN, GoodDataChallenge.scan("GoodData \"=, realm=\"unterminated"));
+        assertEquals(GoodDataChallengeType.UNKNOWN, GoodDataChallenge.scan("GoodData cookie=GDCAuthTTX"));
+        assertEquals(GoodDataChallengeType.UNKNOWN, GoodDataChallenge.scan("GoodData"));
+    }
+
+    @Test
+    public void parse_tt() {
+        final GoodDataChallenge challenge = new GoodDataChallenge();
+
+        assertTrue(challenge.parse("GoodData realm=\"GoodData API\" cookie=GDCAuthTT"));
+        assertEquals(GoodDataChallengeType.TT, challenge.getType());
+        assertEquals("GoodData API", challenge.getRealm());
+        assertEquals("GDCAuthTT", challenge.getParameter("Cookie"));
+        assertEquals(2, countParameters(challenge));
+    }
+
+    @Test
+    public void parse_sstCommaSeparated() {
+        final GoodDataChallenge challenge = new GoodDataChallenge();
+
+        assertTrue(challenge.parse("gooddata cookie=GDCAuthSST, realm=\"a \\\"b\\\"\""));
+        assertEquals(GoodDataChallengeType.SST, challenge.getType());
+        assertEquals("a \"b\"", challenge.getRealm());
+    }
+
+    @Test
+    public void parse_withoutCookie() {
+        final GoodDataChallenge challenge = new GoodDataChallenge();
+
+        assertTrue(challenge.parse("GoodData realm=\"GoodData API\""));
+        assertEquals(GoodDataChallengeType.UNKNOWN, challenge.getType());
+        assertEquals("GoodData API", challenge.getRealm());
+    }
+
+    @Test
+    public void parse_otherScheme() {
+        final GoodDataChallenge challenge = new GoodDataChallenge();
+
+        assertFalse(challenge.parse("Basic realm=\"GoodData API\" cookie=GDCAuthTT"));
+        assertFalse(challenge.parse("GoodDataX cookie=GDCAuthTT"));
+        assertNull(challenge.getType());
+    }
+
+    @Test
+    public void parse_malformed() {
+        final GoodDataChallenge challenge = new GoodDataChallenge();
+
+        assertTrue(challenge.parse("GoodData \"=, realm=\"unterminated"));
+        assertEquals(GoodDataChallengeType.UNKNOWN, challenge.getType());
+        assertEquals("unterminated", challenge.getRealm());
+        assertTrue(challenge.parse("GoodData cookie=GDCAuthTTX"));
+        assertEquals(GoodDataChallengeType.UNKNOWN, challenge.getType());
+        assertTrue(challenge.parse("GoodData"));
+        assertEquals(GoodDataChallengeType.UNKNOWN, challenge.getType());
+        assertEquals(0, countParameters(challenge));
+    }
+
+    @Test
+    public void parse_combinedChallenges() {
+        final GoodDataChallenge challenge = new GoodDataChallenge();
+
+        assertTrue(challenge.parse("Basic realm=\"x\", GoodData realm=\"GoodData API\" cookie=GDCAuthTT, Basic realm=\"y\""));
+        assertEquals(GoodDataChallengeType.TT, challenge.getType());
+        assertEquals("GoodData API", challenge.getRealm());
+        assertEquals(2, countParameters(challenge));
+
+        assertTrue(challenge.parse("GoodData realm=\"first\", GoodData realm=\"second\" cookie=GDCAuthSST"));
+        assertEquals(GoodDataChallengeType.SST, challenge.getType());
+        assertEquals("second", challenge.getRealm());
+    }
+
+    @Test
+    public void parse_offsets() {
+        final GoodDataChallenge challenge = new GoodDataChallenge();
+        final String value = "GoodData realm=\"GoodData API\" cookie=GDCAuthTT";
+
+        assertTrue(challenge.parse(value));
+        assertTrue(challenge.findParameter("REALM"));
+        assertSame(value, challenge.getValue());
+        assertEquals(value.indexOf("realm"), challenge.getNameStart());
+        assertEquals(value.indexOf("realm") + 5, challenge.getNameEnd());
+        assertEquals(value.indexOf("GoodData API"), challenge.getValueStart());
+        assertEquals(value.indexOf("GoodData API") + 12, challenge.getValueEnd());
+        assertTrue(challenge.isQuoted());
+        assertTrue(challenge.nextParameter());
+        assertTrue(challenge.isParameter("cookie"));
+        assertFalse(challenge.isQuoted());
+        assertFalse(challenge.nextParameter());
+        assertFalse(challenge.findParameter("stale"));
+    }
+
+    @Test
+    public void parse_response() {
+        final GoodDataChallenge challenge = new GoodDataChallenge();
+        final HttpResponse response = response(401);
+        response.addHeader("WWW-Authenticate", "Basic realm=\"other\"");
+        response.addHeader("WWW-Authenticate", "GoodData realm=\"GoodData API\" cookie=GDCAuthSST");
+
+        assertTrue(challenge.parse(response));
+        assertEquals(GoodDataChallengeType.SST, challenge.getType());
+        assertEquals("GoodData API", challenge.getRealm());
+        assertFalse(challenge.parse(response(200)));
+        assertNull(challenge.getType());
+    }
+
+    @Test
+    public void parse_doesNotAllocate() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+        final GoodDataChallenge challenge = new GoodDataChallenge();
+        final String value = "Basic realm=\"x\", GoodData realm=\"GoodData API\" cookie=GDCAuthTT";
+        final long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 3; i++) {
+            parseRepeatedly(challenge, value);
+        }
+
+        final long before = allocations.getThreadAllocatedBytes(threadId);
+        final int realmLength = parseRepeatedly(challenge, value);
+        final long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(100000 * "GoodData API".length(), realmLength);
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void identify_combinedHeader() {
+        final HttpResponse response = response(401);
+        response.addHeader("WWW-Authenticate", "Basic realm=\"x\", GoodData realm=\"GoodData API\" cookie=GDCAuthTT");
+
+        assertEquals(GoodDataChallengeType.TT, GoodDataChallengeType.identify(response));
+    }
+
+    @Test
+    public void identify() {
+        final HttpResponse response = response(401);
+        response.addHeader("WWW-Authenticate", "Basic realm=\"other\"");
+        response.addHeader("WWW-Authenticate", "GoodData realm=\"GoodData API\" cookie=GDCAuthTT");
+
+        assertEquals(GoodDataChallengeType.TT, GoodDataChallengeType.identify(response));
+        assertEquals(GoodDataChallengeType.UNKNOWN, GoodDataChallengeType.identify(response(401)));
+        assertEquals(GoodDataChallengeType.UNKNOWN, GoodDataChallengeType.identify(response(200)));
+    }
+
+    @Test
+    public void identify_doesNotAllocate() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+        final HttpResponse ok = response(200);
+        final HttpResponse challenged = response(401);
+        challenged.addHeader("WWW-Authenticate", "GoodData realm=\"GoodData API\" cookie=GDCAuthTT");
+        final long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 3; i++) {
+            identifyRepeatedly(ok, challenged);
+        }
+
+        final long before = allocations.getThreadAllocatedBytes(threadId);
+        final int identified = identifyRepeatedly(ok, challenged);
+        final long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(100000 * (GoodDataChallengeType.UNKNOWN.ordinal() + GoodDataChallengeType.TT.ordinal()), identified);
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static int identifyRepeatedly(final HttpResponse ok, final HttpResponse challenged) {
+        int identified = 0;
+        for (int i = 0; i < 100000; i++) {
+            identified += GoodDataChallengeType.identify(ok).ordinal();
+            identified += GoodDataChallengeType.identify(challenged).ordinal();
+        }
+        return identified;
+    }
+
+    private static int parseRepeatedly(final GoodDataChallenge challenge, final String value) {
+        int realmLength = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (challenge.parse(value) && challenge.findParameter("realm")) {
+                realmLength += challenge.getValueEnd() - challenge.getValueStart();
+            }
+        }
+        return realmLength;
+    }
+
+    private static int countParameters(final GoodDataChallenge challenge) {
+        int count = 0;
+        challenge.rewind();
+        while (challenge.nextParameter()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static HttpResponse response(final int status) {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GoodDataCookieStoreTest {
+
+    public static final String DOMAIN = "server.com";
+
+    private GoodDataCookieStore cookieStore;
+
+    @Before
+    public void setUp() {
+        cookieStore = new GoodDataCookieStore();
+    }
+
+    @Test
+    public void addCookie() {
+        cookieStore.addCookie(createCookie("GDCAuthSST", "sst", "/gdc/account", null));
+        cookieStore.addCookie(createCookie("GDCAuthTT", "tt", "/gdc", null));
+
+        final List<Cookie> cookies = cookieStore.getCookies();
+        assertEquals(2, cookies.size());
+        assertEquals("sst", cookies.get(0).getValue());
+        assertEquals("tt", cookies.get(1).getValue());
+    }
+
+    @Test
+    public void addCookie_replace() {
+        cookieStore.addCookie(createCookie("GDCAuthTT", "tt", "/gdc", null));
+        cookieStore.addCookie(createCookie("GDCAuthTT", "tt2", "/gdc", null));
+
+        final List<Cookie> cookies = cookieStore.getCookies();
+        assertEquals(1, cookies.size());
+        assertEquals("tt2", cookies.get(0).getValue());
+    }
+
+    @Test
+    public void addCookie_expiredRemoves() {
+        cookieStore.addCookie(createCookie("GDCAuthTT", "tt", "/gdc", null));
+        cookieStore.addCookie(createCookie("GDCAuthTT", "", "/gdc", new Date(System.currentTimeMillis() - 1000)));
+
+        assertTrue(cookieStore.getCookies().isEmpty());
+    }
+
+    @Test
+    public void getCookies_snapshot() {
+        cookieStore.addCookie(createCookie("GDCAuthTT", "tt", "/gdc", null));
+
+        final List<Cookie> cookies = cookieStore.getCookies();
+        assertSame(cookies, cookieStore.getCookies());
+
+        cookieStore.addCookie(createCookie("GDCAuthSST", "sst", "/gdc/account", null));
+        assertEquals(1, cookies.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getCookies_unmodifiable() {
+        cookieStore.getCookies().add(createCookie("GDCAuthTT", "tt", "/gdc", null));
+    }
+
+    @Test
+    public void clearExpired() {
+        final long now = System.currentTimeMillis();
+        cookieStore.addCookie(createCookie("GDCAuthTT", "tt", "/gdc", new Date(now + 1000)));
+        cookieStore.addCookie(createCookie("GDCAuthSST", "sst", "/gdc/account", null));
+
+        assertFalse(cookieStore.clearExpired(new Date(now)));
+        assertTrue(cookieStore.clearExpired(new Date(now + 2000)));
+        assertEquals(1, cookieStore.getCookies().size());
+        assertEquals("sst", cookieStore.getCookies().get(0).getValue());
+    }
+
+    @Test
+    public void clear() {
+        cookieStore.addCookie(createCookie("GDCAuthTT", "tt", "/gdc", null));
+        cookieStore.clear();
+
+        assertTrue(cookieStore.getCookies().isEmpty());
+    }
+
+    @Test
+    public void addCookie_concurrent() throws Exception {
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                final String name = "cookie" + i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 100; j++) {
+                            cookieStore.addCookie(createCookie(name, String.valueOf(j), "/gdc", null));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(threads, cookieStore.getCookies().size());
+        for (Cookie cookie : cookieStore.getCookies()) {
+            assertEquals("99", cookie.getValue());
+        }
+    }
+
+    private static Cookie createCookie(final String name, final String value, final String path, final Date expiry) {
+        final BasicClientCookie cookie = new BasicClientCookie(name, value);
+        cookie.setDomain(DOMAIN);
+        cookie.setPath(path);
+        cookie.setExpiryDate(expiry);
+        return cookie;
+    }
+}
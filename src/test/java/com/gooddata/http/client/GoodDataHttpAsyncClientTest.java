@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static net.jadler.Jadler.closeJadler;
+import static net.jadler.Jadler.initJadler;
+import static net.jadler.Jadler.onRequest;
+import static net.jadler.Jadler.port;
+import static org.junit.Assert.assertEquals;
+
+public class GoodDataHttpAsyncClientTest {
+
+    private static final String GDC_TOKEN_URL = "/gdc/account/token";
+    private static final String GDC_LOGIN_URL = "/gdc/account/login";
+    private static final String GDC_PROJECTS_URL = "/gdc/projects";
+    private static final String PROJECTS_BODY = "{\"about\":{\"summary\":\"Project Resources\",\"category\":\"Projects\",\"links\":[]}}";
+
+    private CloseableHttpAsyncClient httpClient;
+    private HttpAsyncClient client;
+    private HttpHost jadlerHost;
+
+    @Before
+    public void setUp() {
+        initJadler();
+        jadlerHost = new HttpHost("localhost", port(), "http");
+
+        httpClient = HttpAsyncClients.createDefault();
+        httpClient.start();
+        final SSTRetrievalStrategy sstStrategy = new LoginSSTRetrievalStrategy(HttpClientBuilder.create().build(),
+                jadlerHost, "user@email.com", "top secret");
+        client = new GoodDataHttpAsyncClient(httpClient, sstStrategy);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        httpClient.close();
+        closeJadler();
+    }
+
+    @Test
+    public void getProjectOkNoTtRefresh() throws Exception {
+        mockProjects(false);
+
+        assertGet(HttpStatus.SC_OK, PROJECTS_BODY);
+    }
+
+    @Test
+    public void getProjectOkTtRefresh() throws Exception {
+        mockProjects(true);
+        mockToken(false);
+
+        assertGet(HttpStatus.SC_OK, PROJECTS_BODY);
+    }
+
+    @Test
+    public void getProjectOkLoginAndTtRefresh() throws Exception {
+        mockProjects(true);
+        mockToken(true);
+        mockLogin(true);
+
+        assertGet(HttpStatus.SC_OK, PROJECTS_BODY);
+    }
+
+    @Test
+    public void getProjectOkAsyncLogin() throws Exception {
+        mockProjects(true);
+        mockToken(true);
+        mockLogin(true);
+        client = new GoodDataHttpAsyncClient(httpClient,
+                new AsyncLoginSSTRetrievalStrategy(httpClient, jadlerHost, "user@email.com", "top secret"));
+
+        assertGet(HttpStatus.SC_OK, PROJECTS_BODY);
+    }
+
+    @Test
+    public void getProjectBadLogin() throws Exception {
+        mockProjects(true);
+        mockToken(true);
+        mockLogin(false);
+
+        assertGet(HttpStatus.SC_UNAUTHORIZED, null);
+    }
+
+    @Test
+    public void challengedRepeatedly() throws Exception {
+        onRequest()
+                .havingURIEqualTo(GDC_PROJECTS_URL)
+        .respond()
+                .withStatus(401)
+                .withHeader("WWW-Authenticate", "GoodData realm=\"GoodData API\" cookie=GDCAuthTT");
+        mockToken(false);
+        ((GoodDataHttpAsyncClient) client).setMaxAuthAttempts(2);
+
+        assertGet(HttpStatus.SC_UNAUTHORIZED, null);
+    }
+
+    @Test
+    public void concurrentRequests() throws Exception {
+        mockProjects(false);
+
+        final List<Future<HttpResponse>> responses = new ArrayList<Future<HttpResponse>>();
+        for (int i = 0; i < 10; i++) {
+            responses.add(client.execute(jadlerHost, new HttpGet(GDC_PROJECTS_URL), null));
+        }
+        for (Future<HttpResponse> response : responses) {
+            assertEquals(HttpStatus.SC_OK, response.get(5, TimeUnit.SECONDS).getStatusLine().getStatusCode());
+        }
+    }
+
+    private void assertGet(final int expectedStatus, final String expectedBody) throws Exception {
+        final HttpGet get = new HttpGet(GDC_PROJECTS_URL);
+        get.addHeader("Accept", ContentType.APPLICATION_JSON.getMimeType());
+        final HttpResponse response = client.execute(jadlerHost, get, null).get(5, TimeUnit.SECONDS);
+        assertEquals(expectedStatus, response.getStatusLine().getStatusCode());
+        if (expectedBody != null) {
+            assertEquals(expectedBody, EntityUtils.toString(response.getEntity()));
+        }
+    }
+
+    private void mockProjects(final boolean challenge) {
+        if (challenge) {
+            onRequest()
+                    .havingMethodEqualTo("GET")
+                    .havingURIEqualTo(GDC_PROJECTS_URL)
+            .respond()
+                    .withStatus(401)
+                    .withHeader("WWW-Authenticate", "GoodData realm=\"GoodData API\" cookie=GDCAuthTT")
+                    .withBody("<html><head><title>401 Authorization Required</title></head></html>")
+            .thenRespond()
+                    .withStatus(200)
+                    .withBody(PROJECTS_BODY)
+                    .withEncoding(Charset.forName("UTF-8"))
+                    .withContentType("application/json; charset=UTF-8");
+        } else {
+            onRequest()
+                    .havingMethodEqualTo("GET")
+                    .havingURIEqualTo(GDC_PROJECTS_URL)
+            .respond()
+                    .withStatus(200)
+                    .withBody(PROJECTS_BODY)
+                    .withEncoding(Charset.forName("UTF-8"))
+                    .withContentType("application/json; charset=UTF-8");
+        }
+    }
+
+    private void mockToken(final boolean sstExpired) {
+        if (sstExpired) {
+            onRequest()
+                    .havingMethodEqualTo("GET")
+                    .havingURIEqualTo(GDC_TOKEN_URL)
+            .respond()
+                    .withStatus(401)
+                    .withHeader("WWW-Authenticate", "GoodData realm=\"GoodData API\" cookie=GDCAuthSST")
+                    .withBody("{\"parameters\":[],\"component\":\"Account::Token\",\"message\":\"/gdc/account/login\"}")
+                    .withContentType("application/json")
+            .thenRespond()
+                    .withStatus(200)
+                    .withBody("{}")
+                    .withHeader("Set-Cookie", "GDCAuthTT=cookieTt; path=/gdc; HttpOnly")
+                    .withContentType("application/json");
+        } else {
+            onRequest()
+                    .havingMethodEqualTo("GET")
+                    .havingURIEqualTo(GDC_TOKEN_URL)
+            .respond()
+                    .withStatus(200)
+                    .withBody("{}")
+                    .withHeader("Set-Cookie", "GDCAuthTT=cookieTt; path=/gdc; HttpOnly")
+                    .withContentType("application/json");
+        }
+    }
+
+    private void mockLogin(final boolean ok) {
+        if (ok) {
+            onRequest()
+                    .havingMethodEqualTo("POST")
+                    .havingURIEqualTo(GDC_LOGIN_URL)
+            .respond()
+                    .withStatus(200)
+                    .withBody("{\"userLogin\":{\"profile\":\"/gdc/account/profile/asdfasdf45t4ar\",\"state\":\"/gdc/account/login/asdfasdf45t4ar\"}}")
+                    .withContentType("application/json")
+                    .withHeader("Set-Cookie", "GDCAuthSST=cookieSst; path=/gdc/account; secure; HttpOnly");
+        } else {
+            onRequest()
+                    .havingMethodEqualTo("POST")
+                    .havingURIEqualTo(GDC_LOGIN_URL)
+            .respond()
+                    .withStatus(401)
+                    .withHeader("WWW-Authenticate", "GoodData realm=\"GoodData API\"")
+                    .withBody("{\"parameters\":[],\"component\":\"Account::Login::AuthShare\",\"message\":\"Bad Login or Password!\"}")
+                    .withContentType("application/json");
+        }
+    }
+}
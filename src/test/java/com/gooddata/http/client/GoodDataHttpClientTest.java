@@ -4,29 +4,78 @@
  */
 package com.gooddata.http.client;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
 import org.apache.http.ProtocolVersion;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.SM;
 import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.message.BasicStatusLine;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.*;
 
 public class GoodDataHttpClientTest {
@@ -115,6 +164,186 @@ public class GoodDataHttpClientTest {
         assertEquals(response401.getStatusLine().getStatusCode(), goodDataHttpClient.execute(host, get).getStatusLine().getStatusCode());
     }
 
+    @Test
+    public void execute_loginCircuitOpen() throws IOException {
+        goodDataHttpClient.setLoginCircuitBreaker(60000, 60000);
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(ttChallengeResponse)
+                .thenReturn(response401);
+        when(sstStrategy.obtainSst()).thenThrow(new GoodDataAuthException("Login service unavailable"));
+
+        assertEquals(HttpStatus.SC_UNAUTHORIZED, goodDataHttpClient.execute(host, get).getStatusLine().getStatusCode());
+        final HttpResponse rejected = goodDataHttpClient.execute(host, get);
+
+        assertEquals(HttpStatus.SC_UNAUTHORIZED, rejected.getStatusLine().getStatusCode());
+        assertEquals("Login circuit breaker open: Login service unavailable", rejected.getStatusLine().getReasonPhrase());
+        assertTrue(Integer.parseInt(rejected.getFirstHeader("Retry-After").getValue()) > 0);
+        verify(sstStrategy, times(1)).obtainSst();
+        verify(httpClient, times(2)).execute(eq(host), any(HttpRequest.class), any(HttpContext.class));
+    }
+
+    @Test
+    public void execute_rateLimitExceeded() throws IOException {
+        final RequestRateLimiter limiter = new RequestRateLimiter().addLimit(1, 1);
+        limiter.setMaxWaitMillis(0);
+        goodDataHttpClient.setRateLimiter(limiter);
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenReturn(okResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+        final HttpResponse rejected = goodDataHttpClient.execute(host, get);
+
+        assertEquals(429, rejected.getStatusLine().getStatusCode());
+        assertEquals("1", rejected.getFirstHeader("Retry-After").getValue());
+        verify(httpClient, only()).execute(eq(host), eq(get), any(HttpContext.class));
+    }
+
+    @Test
+    public void execute_concurrencyLimitCutOnServiceUnavailable() throws IOException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10);
+        goodDataHttpClient.setConcurrencyLimiter(limiter);
+        final HttpResponse unavailable = createResponse(HttpStatus.SC_SERVICE_UNAVAILABLE, "", "Service Unavailable");
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenReturn(unavailable);
+
+        final HttpResponse response = goodDataHttpClient.execute(host, get);
+        EntityUtils.consume(response.getEntity());
+
+        assertEquals(unavailable, response);
+        assertEquals(9, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void execute_concurrencyLimitHeldUntilEntityConsumed() throws IOException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10);
+        goodDataHttpClient.setConcurrencyLimiter(limiter);
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenReturn(okResponse);
+
+        final HttpResponse response = goodDataHttpClient.execute(host, get);
+        final InputStream content = response.getEntity().getContent();
+        content.read();
+        assertEquals(1, limiter.getInFlight());
+
+        content.close();
+        assertEquals(0, limiter.getInFlight());
+        EntityUtils.consume(response.getEntity());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void execute_concurrencyLimitNotCutBySlowEntityRead() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10);
+        limiter.setRttTolerance(100);
+        goodDataHttpClient.setConcurrencyLimiter(limiter);
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenReturn(createResponse(HttpStatus.SC_OK, "first", "OK"))
+                .thenReturn(createResponse(HttpStatus.SC_OK, "second", "OK"));
+        EntityUtils.consume(goodDataHttpClient.execute(host, get).getEntity());
+
+        final HttpResponse response = goodDataHttpClient.execute(host, get);
+        Thread.sleep(200);
+        EntityUtils.consume(response.getEntity());
+
+        assertEquals(10, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void execute_concurrencyLimitReleasedWithoutEntity() throws IOException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 10);
+        goodDataHttpClient.setConcurrencyLimiter(limiter);
+        final HttpResponse noContent = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, 204, "No Content"));
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenReturn(noContent);
+
+        assertEquals(noContent, goodDataHttpClient.execute(host, get));
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void execute_retriedOnServiceUnavailable() throws IOException {
+        goodDataHttpClient.setRetryPolicy(new RetryPolicy());
+        final HttpResponse unavailable = createResponse(HttpStatus.SC_SERVICE_UNAVAILABLE, "", "Service Unavailable");
+        unavailable.setHeader("Retry-After", "0");
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenReturn(unavailable)
+                .thenReturn(okResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+
+        verify(httpClient, times(2)).execute(eq(host), eq(get), any(HttpContext.class));
+    }
+
+    @Test
+    public void execute_retriedOnConnectionReset() throws IOException {
+        final RetryPolicy policy = new RetryPolicy();
+        policy.setDelay(0, 0);
+        goodDataHttpClient.setRetryPolicy(policy);
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenThrow(new SocketException("Connection reset"))
+                .thenReturn(okResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+    }
+
+    @Test
+    public void execute_notRetriedAfterMaxAttempts() throws IOException {
+        final RetryPolicy policy = new RetryPolicy();
+        policy.setDelay(0, 0);
+        policy.setMaxAttempts(2);
+        goodDataHttpClient.setRetryPolicy(policy);
+        final HttpResponse unavailable = createResponse(HttpStatus.SC_BAD_GATEWAY, "", "Bad Gateway");
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenReturn(unavailable);
+
+        assertEquals(unavailable, goodDataHttpClient.execute(host, get));
+
+        verify(httpClient, times(2)).execute(eq(host), eq(get), any(HttpContext.class));
+    }
+
+    @Test
+    public void execute_concurrencyLimitRejectionNotRetried() throws IOException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1);
+        limiter.setMaxWaitMillis(0);
+        goodDataHttpClient.setConcurrencyLimiter(limiter);
+        final RetryPolicy policy = new RetryPolicy();
+        policy.setDelay(0, 0);
+        policy.setRetryBudget(0, 1);
+        goodDataHttpClient.setRetryPolicy(policy);
+        final HttpResponse unavailable = createResponse(HttpStatus.SC_SERVICE_UNAVAILABLE, "", "Service Unavailable");
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenReturn(okResponse)
+                .thenReturn(unavailable)
+                .thenReturn(createResponse(HttpStatus.SC_OK, "", "OK"));
+
+        final HttpResponse held = goodDataHttpClient.execute(host, get);
+        final HttpResponse rejected = goodDataHttpClient.execute(host, get);
+
+        assertEquals(HttpStatus.SC_SERVICE_UNAVAILABLE, rejected.getStatusLine().getStatusCode());
+        verify(httpClient, times(1)).execute(eq(host), eq(get), any(HttpContext.class));
+
+        // the rejection has not spent the only retry of the budget
+        EntityUtils.consume(held.getEntity());
+        final HttpResponse retried = goodDataHttpClient.execute(host, get);
+        assertEquals(HttpStatus.SC_OK, retried.getStatusLine().getStatusCode());
+        verify(httpClient, times(3)).execute(eq(host), eq(get), any(HttpContext.class));
+    }
+
+    @Test
+    public void execute_nonIdempotentNotRetried() throws IOException {
+        goodDataHttpClient.setRetryPolicy(new RetryPolicy());
+        final HttpPost post = new HttpPost("/url");
+        final HttpResponse unavailable = createResponse(HttpStatus.SC_SERVICE_UNAVAILABLE, "", "Service Unavailable");
+        when(httpClient.execute(eq(host), eq(post), any(HttpContext.class)))
+                .thenReturn(unavailable);
+
+        assertEquals(unavailable, goodDataHttpClient.execute(host, post));
+
+        verify(httpClient, only()).execute(eq(host), eq(post), any(HttpContext.class));
+    }
+
     @Test
     public void execute_nonChallenge401() throws IOException {
         when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
@@ -156,4 +385,677 @@ public class GoodDataHttpClientTest {
         verify(httpClient, times(3)).execute(eq(host), any(HttpRequest.class), any(HttpContext.class));
     }
 
+    @Test
+    public void execute_perRequestContext() throws IOException {
+        final HttpGet otherGet = new HttpGet("/other");
+        final ArgumentCaptor<HttpContext> contexts = ArgumentCaptor.forClass(HttpContext.class);
+        when(httpClient.execute(eq(host), any(HttpRequest.class), contexts.capture()))
+                .thenReturn(okResponse);
+
+        goodDataHttpClient.execute(host, get);
+        goodDataHttpClient.execute(host, otherGet);
+
+        final HttpContext first = contexts.getAllValues().get(0);
+        final HttpContext second = contexts.getAllValues().get(1);
+        assertNotSame(first, second);
+        first.setAttribute("attribute", "value");
+        assertNull(second.getAttribute("attribute"));
+        assertNotNull(first.getAttribute(HttpClientContext.COOKIE_STORE));
+        assertSame(first.getAttribute(HttpClientContext.COOKIE_STORE), second.getAttribute(HttpClientContext.COOKIE_STORE));
+    }
+
+    @Test
+    public void execute_customContext() throws IOException {
+        final HttpContext context = new BasicHttpContext();
+        when(httpClient.execute(eq(host), eq(get), eq(context))).thenReturn(okResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get, context));
+    }
+
+    @Test
+    public void execute_challengedRepeatedly() throws IOException {
+        goodDataHttpClient.setMaxAuthAttempts(2);
+        goodDataHttpClient.setAuthBackoffMillis(0);
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(ttRefreshedResponse);
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenReturn(ttChallengeResponse);
+
+        final HttpResponse response = goodDataHttpClient.execute(host, get);
+
+        assertEquals(HttpStatus.SC_UNAUTHORIZED, response.getStatusLine().getStatusCode());
+        assertEquals("Unable to authenticate after 2 attempts", response.getStatusLine().getReasonPhrase());
+        verify(httpClient, times(3)).execute(eq(host), eq(get), any(HttpContext.class));
+        verify(httpClient, times(5)).execute(eq(host), any(HttpRequest.class), any(HttpContext.class));
+        verify(sstStrategy, never()).obtainSst();
+    }
+
+    @Test
+    public void execute_nonRepeatableEntityReplayed() throws IOException {
+        final HttpPost post = new HttpPost("/upload");
+        final InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream("data".getBytes()), 4);
+        post.setEntity(entity);
+        final List<String> sentBodies = new ArrayList<String>();
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                if (invocation.getArguments()[1] != post) {
+                    return ttRefreshedResponse;
+                }
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                post.getEntity().writeTo(body);
+                sentBodies.add(body.toString());
+                return sentBodies.size() == 1 ? ttChallengeResponse : okResponse;
+            }
+        });
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, post));
+        assertEquals(Arrays.asList("data", "data"), sentBodies);
+        assertSame(entity, post.getEntity());
+    }
+
+    @Test
+    public void execute_expectContinue() throws IOException {
+        final HttpPost post = new HttpPost("/upload");
+        post.setEntity(new ByteArrayEntity(new byte[100]));
+        final List<Boolean> expectContinue = new ArrayList<Boolean>();
+        when(httpClient.execute(eq(host), eq(post), any(HttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                expectContinue.add(post.expectContinue());
+                return okResponse;
+            }
+        });
+
+        goodDataHttpClient.execute(host, post);
+        goodDataHttpClient.setExpectContinueThreshold(101);
+        goodDataHttpClient.execute(host, post);
+        goodDataHttpClient.setExpectContinueThreshold(100);
+        goodDataHttpClient.execute(host, post);
+
+        assertEquals(Arrays.asList(false, false, true), expectContinue);
+        assertNull(post.getFirstHeader("Expect"));
+    }
+
+    @Test
+    public void execute_expectContinueUnknownLength() throws IOException {
+        final HttpPost post = new HttpPost("/upload");
+        post.setEntity(new InputStreamEntity(new ByteArrayInputStream(new byte[10]), -1));
+        final List<Boolean> expectContinue = new ArrayList<Boolean>();
+        when(httpClient.execute(eq(host), eq(post), any(HttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                expectContinue.add(post.expectContinue());
+                return okResponse;
+            }
+        });
+        goodDataHttpClient.setExpectContinueThreshold(1024);
+
+        goodDataHttpClient.execute(host, post);
+
+        assertEquals(Arrays.asList(true), expectContinue);
+        assertNull(post.getFirstHeader("Expect"));
+    }
+
+    @Test
+    public void execute_nonRepeatableEntityNotRecordedWhenReplayDisabled() throws IOException {
+        goodDataHttpClient.setEntityReplayEnabled(false);
+        final HttpPost post = new HttpPost("/upload");
+        final InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream("data".getBytes()), 4);
+        post.setEntity(entity);
+        final List<HttpEntity> sentEntities = new ArrayList<HttpEntity>();
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                sentEntities.add(post.getEntity());
+                return okResponse;
+            }
+        });
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, post));
+        assertEquals(Arrays.<HttpEntity>asList(entity), sentEntities);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMaxAuthAttempts_zero() {
+        goodDataHttpClient.setMaxAuthAttempts(0);
+    }
+
+    @Test
+    public void execute_proactiveTtRefresh() throws Exception {
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            goodDataHttpClient.setTtRefreshScheduler(scheduler);
+            goodDataHttpClient.setTtLifetimeMillis(200);
+            goodDataHttpClient.setTtRefreshAheadMillis(100);
+            final CountDownLatch refreshed = new CountDownLatch(3);
+            when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+                @Override
+                public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                    refreshed.countDown();
+                    return ttRefreshedResponse;
+                }
+            });
+            when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                    .thenReturn(ttChallengeResponse)
+                    .thenReturn(okResponse);
+
+            assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+
+            // first refresh was triggered by the challenge, following ones run in background
+            assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+            verify(httpClient, times(2)).execute(eq(host), eq(get), any(HttpContext.class));
+            verify(sstStrategy, never()).obtainSst();
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void execute_proactiveTtRefreshByCookieExpiration() throws Exception {
+        final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        goodDataHttpClient.setTtRefreshScheduler(scheduler);
+        goodDataHttpClient.setTtRefreshAheadMillis(60 * 1000);
+        final Date expiration = new Date(System.currentTimeMillis() + 10 * 60 * 1000);
+        ttRefreshedResponse.setHeader(SM.SET_COOKIE, "GDCAuthTT=tt; path=/gdc; expires=" + DateUtils.formatDate(expiration) + "; secure; HttpOnly");
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(ttChallengeResponse)
+                .thenReturn(ttRefreshedResponse)
+                .thenReturn(okResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+
+        final ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+        verify(scheduler).schedule(any(Runnable.class), delay.capture(), eq(TimeUnit.MILLISECONDS));
+        assertTrue(delay.getValue() > 8 * 60 * 1000);
+        assertTrue(delay.getValue() <= 9 * 60 * 1000);
+    }
+
+    @Test
+    public void execute_renewedSstInstalled() throws Exception {
+        final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        when(sstStrategy.obtainSst()).thenReturn("sst1").thenReturn("sst2");
+        goodDataHttpClient = new GoodDataHttpClient(httpClient,
+                new RenewingSSTRetrievalStrategy(sstStrategy, scheduler, 60 * 60 * 1000));
+        final ArgumentCaptor<HttpContext> context = ArgumentCaptor.forClass(HttpContext.class);
+        when(httpClient.execute(eq(host), any(HttpRequest.class), context.capture()))
+                .thenReturn(sstChallengeResponse)
+                .thenReturn(ttRefreshedResponse)
+                .thenReturn(okResponse);
+        goodDataHttpClient.execute(host, get);
+        assertEquals("sst1", getSst(context.getValue()));
+
+        final ArgumentCaptor<Runnable> renewal = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(renewal.capture(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        renewal.getValue().run();
+
+        assertEquals("sst2", getSst(context.getValue()));
+    }
+
+    private static String getSst(final HttpContext context) {
+        return getCookie(context, CookieUtils.SST_COOKIE_NAME);
+    }
+
+    private static String getCookie(final HttpContext context, final String name) {
+        final CookieStore cookieStore = (CookieStore) context.getAttribute(HttpClientContext.COOKIE_STORE);
+        for (Cookie cookie : cookieStore.getCookies()) {
+            if (name.equals(cookie.getName())) {
+                return cookie.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void execute_tokensStoredToCache() throws Exception {
+        final TokenCache tokenCache = mock(TokenCache.class);
+        goodDataHttpClient.setTokenCache(tokenCache);
+        final Date expiration = DateUtils.parseDate(DateUtils.formatDate(new Date(System.currentTimeMillis() + 10 * 60 * 1000)));
+        ttRefreshedResponse.setHeader(SM.SET_COOKIE, "GDCAuthTT=tt; path=/gdc; expires=" + DateUtils.formatDate(expiration) + "; secure; HttpOnly");
+        when(sstStrategy.obtainSst()).thenReturn("sst");
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(sstChallengeResponse)
+                .thenReturn(ttRefreshedResponse)
+                .thenReturn(okResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+
+        verify(tokenCache).store(new GoodDataTokens(host, "sst", "tt", expiration.getTime()));
+    }
+
+    @Test
+    public void setTokenCache_cachedTokensInstalled() throws Exception {
+        final TokenCache tokenCache = mock(TokenCache.class);
+        when(tokenCache.load()).thenReturn(new GoodDataTokens(host, "sst", "tt", System.currentTimeMillis() + 60 * 1000));
+        final ArgumentCaptor<HttpContext> context = ArgumentCaptor.forClass(HttpContext.class);
+        when(httpClient.execute(eq(host), eq(get), context.capture())).thenReturn(okResponse);
+
+        goodDataHttpClient.setTokenCache(tokenCache);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+        assertEquals("sst", getSst(context.getValue()));
+        assertEquals("tt", getCookie(context.getValue(), CookieUtils.TT_COOKIE_NAME));
+        verify(sstStrategy, never()).obtainSst();
+    }
+
+    @Test
+    public void setTokenCache_expiredTtNotInstalled() throws Exception {
+        final TokenCache tokenCache = mock(TokenCache.class);
+        when(tokenCache.load()).thenReturn(new GoodDataTokens(host, "sst", "tt", System.currentTimeMillis() - 1));
+        final ArgumentCaptor<HttpContext> context = ArgumentCaptor.forClass(HttpContext.class);
+        when(httpClient.execute(eq(host), eq(get), context.capture())).thenReturn(okResponse);
+
+        goodDataHttpClient.setTokenCache(tokenCache);
+
+        goodDataHttpClient.execute(host, get);
+        assertEquals("sst", getSst(context.getValue()));
+        assertNull(getCookie(context.getValue(), CookieUtils.TT_COOKIE_NAME));
+    }
+
+    @Test
+    public void execute_sharedCacheTokensAdopted() throws Exception {
+        final SharedTokenCache tokenCache = mock(SharedTokenCache.class);
+        goodDataHttpClient.setTokenCache(tokenCache);
+        when(tokenCache.load()).thenReturn(new GoodDataTokens(host, "sst2", "tt2", System.currentTimeMillis() + 60 * 1000));
+        final ArgumentCaptor<HttpContext> context = ArgumentCaptor.forClass(HttpContext.class);
+        when(httpClient.execute(eq(host), eq(get), context.capture()))
+                .thenReturn(ttChallengeResponse)
+                .thenReturn(okResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+
+        assertEquals("sst2", getSst(context.getValue()));
+        assertEquals("tt2", getCookie(context.getValue(), CookieUtils.TT_COOKIE_NAME));
+        verify(httpClient, times(2)).execute(eq(host), any(HttpRequest.class), any(HttpContext.class));
+        verify(sstStrategy, never()).obtainSst();
+        final InOrder inOrder = inOrder(tokenCache);
+        inOrder.verify(tokenCache).lock();
+        inOrder.verify(tokenCache).unlock();
+        verify(tokenCache, never()).store(any(GoodDataTokens.class));
+    }
+
+    @Test
+    public void execute_sharedCacheLockedDuringAuthentication() throws Exception {
+        final SharedTokenCache tokenCache = mock(SharedTokenCache.class);
+        goodDataHttpClient.setTokenCache(tokenCache);
+        ttRefreshedResponse.setHeader(SM.SET_COOKIE, "GDCAuthTT=tt; path=/gdc; secure; HttpOnly");
+        when(sstStrategy.obtainSst()).thenReturn("sst");
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(sstChallengeResponse)
+                .thenReturn(ttRefreshedResponse)
+                .thenReturn(okResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+
+        final InOrder inOrder = inOrder(tokenCache, sstStrategy);
+        inOrder.verify(tokenCache).lock();
+        inOrder.verify(tokenCache).load();
+        inOrder.verify(sstStrategy).obtainSst();
+        inOrder.verify(tokenCache).store(any(GoodDataTokens.class));
+        inOrder.verify(tokenCache).unlock();
+    }
+
+    @Test
+    public void execute_tokenStoreSstUsed() throws Exception {
+        final InMemoryTokenStore store = new InMemoryTokenStore();
+        store.compareAndSet(TokenStoreEntry.EMPTY, TokenStoreEntry.EMPTY.withTokens(new GoodDataTokens(host, "shared", null, -1)));
+        goodDataHttpClient.setTokenStore(store);
+        final ArgumentCaptor<HttpContext> context = ArgumentCaptor.forClass(HttpContext.class);
+        when(httpClient.execute(eq(host), any(HttpRequest.class), context.capture()))
+                .thenReturn(sstChallengeResponse)
+                .thenReturn(ttRefreshedResponse)
+                .thenReturn(okResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+
+        assertEquals("shared", getSst(context.getValue()));
+        verify(sstStrategy, never()).obtainSst();
+    }
+
+    @Test
+    public void execute_tokenStoreUpdatedWithObtainedSst() throws Exception {
+        final InMemoryTokenStore store = new InMemoryTokenStore();
+        goodDataHttpClient.setTokenStore(store);
+        when(sstStrategy.obtainSst()).thenReturn("sst");
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(sstChallengeResponse)
+                .thenReturn(ttRefreshedResponse)
+                .thenReturn(okResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+
+        assertEquals(new TokenStoreEntry(2, new GoodDataTokens(host, "sst", null, -1), 0), store.get());
+    }
+
+    @Test
+    public void execute_metricsReported() throws Exception {
+        final MetricsListener listener = mock(MetricsListener.class);
+        goodDataHttpClient.setMetricsListener(listener);
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(ttChallengeResponse)
+                .thenReturn(ttRefreshedResponse)
+                .thenReturn(okResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+
+        final ArgumentCaptor<RequestMetrics> metrics = ArgumentCaptor.forClass(RequestMetrics.class);
+        verify(listener).requestCompleted(metrics.capture());
+        assertEquals(host, metrics.getValue().getHost());
+        assertEquals("GET", metrics.getValue().getMethod());
+        assertEquals(HttpStatus.SC_OK, metrics.getValue().getStatus());
+        assertEquals(GoodDataChallengeType.TT, metrics.getValue().getChallenge());
+        assertEquals(1, metrics.getValue().getRetries());
+        assertTrue(metrics.getValue().getAuthWaitNanos() > 0);
+        assertTrue(metrics.getValue().getTotalNanos() >= metrics.getValue().getTransportNanos()
+                + metrics.getValue().getAuthWaitNanos());
+        verify(listener).ttRefreshed(eq(host), anyLong(), eq(true));
+        verify(listener, never()).sstObtained(any(HttpHost.class), anyLong(), anyBoolean());
+    }
+
+    @Test
+    public void execute_metricsReportedOnFailure() throws Exception {
+        final HistogramMetricsListener listener = new HistogramMetricsListener();
+        goodDataHttpClient.setMetricsListener(listener);
+        when(sstStrategy.obtainSst()).thenThrow(new GoodDataAuthException("Bad credentials"));
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(sstChallengeResponse)
+                .thenThrow(new IOException("Connection reset"));
+
+        assertEquals(HttpStatus.SC_UNAUTHORIZED, goodDataHttpClient.execute(host, get).getStatusLine().getStatusCode());
+        try {
+            goodDataHttpClient.execute(host, get);
+        } catch (IOException expected) {
+            // counted as failed request
+        }
+
+        assertEquals(1, listener.getChallenges(GoodDataChallengeType.SST));
+        assertEquals(1, listener.getResponses(4));
+        assertEquals(1, listener.getResponses(0));
+        assertEquals(1, listener.getFailedSstRetrievals());
+        assertEquals(2, listener.getTotal().getCount());
+        assertEquals(0, listener.getRetries());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void registerMBean_statistics() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = goodDataHttpClient.registerMBean(server, new ObjectName("test:type=GoodDataHttpClient"));
+        final ConnPoolControl<Object> pool = mock(ConnPoolControl.class);
+        when(pool.getTotalStats()).thenReturn(new PoolStats(3, 1, 2, 20));
+        goodDataHttpClient.setConnectionPool(pool);
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(ttChallengeResponse)
+                .thenReturn(ttRefreshedResponse)
+                .thenReturn(okResponse);
+
+        goodDataHttpClient.execute(host, get);
+
+        assertEquals(1L, server.getAttribute(name, "RequestCount"));
+        assertEquals(0L, server.getAttribute(name, "InFlightRequests"));
+        assertEquals(1L, server.getAttribute(name, "TtRefreshCount"));
+        assertEquals(0L, server.getAttribute(name, "SstRefreshCount"));
+        assertTrue((Long) server.getAttribute(name, "MillisSinceLastTtRefresh") >= 0);
+        assertEquals(-1L, server.getAttribute(name, "MillisSinceLastSstRefresh"));
+        assertEquals(0, server.getAttribute(name, "AuthWaitingThreads"));
+        assertEquals(3, server.getAttribute(name, "PoolLeased"));
+        assertEquals(20, server.getAttribute(name, "PoolMax"));
+
+        goodDataHttpClient.unregisterMBean();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void registerMBean_operations() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = goodDataHttpClient.registerMBean(server, new ObjectName("test:type=GoodDataHttpClient"));
+        when(sstStrategy.obtainSst()).thenReturn("sst");
+        // token refresh, more specific stub below takes precedence
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(ttRefreshedResponse);
+        final ArgumentCaptor<HttpContext> context = ArgumentCaptor.forClass(HttpContext.class);
+        when(httpClient.execute(eq(host), eq(get), context.capture()))
+                .thenReturn(sstChallengeResponse)
+                .thenReturn(okResponse);
+        goodDataHttpClient.execute(host, get);
+
+        server.invoke(name, "forceTtRefresh", null, null);
+        assertEquals(2L, server.getAttribute(name, "TtRefreshCount"));
+        assertEquals(1L, server.getAttribute(name, "SstRefreshCount"));
+
+        server.invoke(name, "invalidateSst", null, null);
+        assertNull(getSst(context.getValue()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void registerMBean_twice() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        goodDataHttpClient.registerMBean(server, new ObjectName("test:type=GoodDataHttpClient,id=1"));
+        goodDataHttpClient.registerMBean(server, new ObjectName("test:type=GoodDataHttpClient,id=2"));
+    }
+
+    @Test
+    public void execute_authHttpClientUsedForTtRefresh() throws Exception {
+        final HttpClient authHttpClient = mock(HttpClient.class);
+        goodDataHttpClient.setAuthHttpClient(authHttpClient);
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenReturn(ttChallengeResponse)
+                .thenReturn(okResponse);
+        when(authHttpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class)))
+                .thenReturn(ttRefreshedResponse);
+
+        assertEquals(okResponse, goodDataHttpClient.execute(host, get));
+
+        verify(httpClient, times(2)).execute(eq(host), any(HttpRequest.class), any(HttpContext.class));
+        verify(authHttpClient).execute(eq(host), isA(HttpGet.class), any(HttpContext.class));
+    }
+
+    /**
+     * Requests which are not challenged must not wait for authentication running in another thread.
+     */
+    @Test
+    public void execute_notBlockedByRunningAuthentication() throws Exception {
+        final HttpGet otherGet = new HttpGet("/other");
+        final CountDownLatch authStarted = new CountDownLatch(1);
+        final CountDownLatch authRelease = new CountDownLatch(1);
+        // token refresh, more specific stubs below take precedence
+        when(httpClient.execute(eq(host), isA(HttpGet.class), any(HttpContext.class)))
+                .thenReturn(ttRefreshedResponse);
+        when(httpClient.execute(eq(host), eq(get), any(HttpContext.class)))
+                .thenReturn(sstChallengeResponse)
+                .thenReturn(okResponse);
+        when(httpClient.execute(eq(host), eq(otherGet), any(HttpContext.class)))
+                .thenReturn(okResponse);
+        when(sstStrategy.obtainSst()).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                authStarted.countDown();
+                authRelease.await();
+                return "sst";
+            }
+        });
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<HttpResponse> authenticating = executor.submit(new Callable<HttpResponse>() {
+                @Override
+                public HttpResponse call() throws Exception {
+                    return goodDataHttpClient.execute(host, get);
+                }
+            });
+            assertTrue(authStarted.await(5, TimeUnit.SECONDS));
+
+            assertEquals(okResponse, goodDataHttpClient.execute(host, otherGet));
+
+            authRelease.countDown();
+            assertEquals(okResponse, authenticating.get(5, TimeUnit.SECONDS));
+            verify(sstStrategy, only()).obtainSst();
+        } finally {
+            authRelease.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * All threads challenged in the same epoch share single authentication and replay once.
+     */
+    @Test
+    public void execute_concurrentChallengesAuthenticateOnce() throws Exception {
+        final int threads = 8;
+        final AtomicInteger tokenRequests = new AtomicInteger();
+        mockChallengeStorm(threads, new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                tokenRequests.incrementAndGet();
+                return ttRefreshedResponse;
+            }
+        });
+
+        for (HttpResponse response : executeConcurrently(threads)) {
+            assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        }
+        assertEquals(1, tokenRequests.get());
+        verify(sstStrategy, never()).obtainSst();
+        verify(httpClient, times(2 * threads)).execute(eq(host), eq(get), any(HttpContext.class));
+    }
+
+    /**
+     * Failed authentication is reported to all threads challenged in the same epoch without retrying it.
+     */
+    @Test
+    public void execute_concurrentChallengesShareFailure() throws Exception {
+        final int threads = 8;
+        mockChallengeStorm(threads, new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                return response401;
+            }
+        });
+        when(sstStrategy.obtainSst()).thenThrow(new GoodDataAuthException("Unable to login"));
+
+        for (HttpResponse response : executeConcurrently(threads)) {
+            assertEquals(HttpStatus.SC_UNAUTHORIZED, response.getStatusLine().getStatusCode());
+            assertEquals("Unable to login", response.getStatusLine().getReasonPhrase());
+        }
+        verify(sstStrategy, times(1)).obtainSst();
+        verify(httpClient, times(threads)).execute(eq(host), eq(get), any(HttpContext.class));
+    }
+
+    /**
+     * Threads waiting for authentication park without holding any monitor, so virtual threads would not pin
+     * their carriers.
+     */
+    @Test
+    public void execute_challengedThreadsParkWithoutMonitors() throws Exception {
+        final int threads = 8;
+        final CountDownLatch authStarted = new CountDownLatch(1);
+        final CountDownLatch authRelease = new CountDownLatch(1);
+        mockChallengeStorm(threads, new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                authStarted.countDown();
+                authRelease.await();
+                return ttRefreshedResponse;
+            }
+        });
+        final List<Thread> workers = new CopyOnWriteArrayList<Thread>();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable);
+                workers.add(thread);
+                return thread;
+            }
+        });
+        try {
+            final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<HttpResponse>() {
+                    @Override
+                    public HttpResponse call() throws Exception {
+                        return goodDataHttpClient.execute(host, get);
+                    }
+                }));
+            }
+            assertTrue(authStarted.await(5, TimeUnit.SECONDS));
+            awaitWaiting(workers, threads);
+
+            final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            for (Thread worker : workers) {
+                final ThreadInfo info = threadBean.getThreadInfo(new long[]{worker.getId()}, true, false)[0];
+                assertEquals(Thread.State.WAITING, info.getThreadState());
+                assertEquals(0, info.getLockedMonitors().length);
+            }
+
+            authRelease.countDown();
+            for (Future<HttpResponse> future : futures) {
+                assertEquals(HttpStatus.SC_OK, future.get(5, TimeUnit.SECONDS).getStatusLine().getStatusCode());
+            }
+        } finally {
+            authRelease.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitWaiting(final List<Thread> workers, final int threads) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            int waiting = 0;
+            for (Thread worker : workers) {
+                if (worker.getState() == Thread.State.WAITING) {
+                    waiting++;
+                }
+            }
+            if (waiting == threads) {
+                return;
+            }
+            assertTrue("Threads not waiting: " + (threads - waiting), System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * First <code>threads</code> requests get TT challenge only when all of them were sent, following ones succeed.
+     */
+    private void mockChallengeStorm(final int threads, final Answer<HttpResponse> tokenAnswer) throws IOException {
+        final CountDownLatch challenged = new CountDownLatch(threads);
+        final AtomicInteger requests = new AtomicInteger();
+        when(httpClient.execute(eq(host), any(HttpRequest.class), any(HttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                if (invocation.getArguments()[1] != get) {
+                    return tokenAnswer.answer(invocation);
+                }
+                if (requests.incrementAndGet() > threads) {
+                    return okResponse;
+                }
+                challenged.countDown();
+                assertTrue(challenged.await(5, TimeUnit.SECONDS));
+                return ttChallengeResponse;
+            }
+        });
+    }
+
+    private List<HttpResponse> executeConcurrently(final int threads) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<HttpResponse>> futures = new ArrayList<Future<HttpResponse>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<HttpResponse>() {
+                    @Override
+                    public HttpResponse call() throws Exception {
+                        return goodDataHttpClient.execute(host, get);
+                    }
+                }));
+            }
+            final List<HttpResponse> responses = new ArrayList<HttpResponse>();
+            for (Future<HttpResponse> future : futures) {
+                responses.add(future.get(5, TimeUnit.SECONDS));
+            }
+            return responses;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpHost;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryTokenStoreTest {
+
+    private final GoodDataTokens tokens = new GoodDataTokens(new HttpHost("localhost", 8080, "http"), "sst", null, -1);
+
+    @Test
+    public void get_empty() {
+        assertSame(TokenStoreEntry.EMPTY, new InMemoryTokenStore().get());
+    }
+
+    @Test
+    public void compareAndSet() {
+        final InMemoryTokenStore store = new InMemoryTokenStore();
+        final TokenStoreEntry leased = TokenStoreEntry.EMPTY.withLease(1000);
+
+        assertTrue(store.compareAndSet(TokenStoreEntry.EMPTY, leased));
+        assertTrue(store.compareAndSet(leased, leased.withTokens(tokens)));
+        assertEquals(new TokenStoreEntry(2, tokens, 0), store.get());
+    }
+
+    @Test
+    public void compareAndSet_stale() {
+        final InMemoryTokenStore store = new InMemoryTokenStore();
+        final TokenStoreEntry leased = TokenStoreEntry.EMPTY.withLease(1000);
+        assertTrue(store.compareAndSet(TokenStoreEntry.EMPTY, leased));
+
+        assertFalse(store.compareAndSet(TokenStoreEntry.EMPTY, TokenStoreEntry.EMPTY.withTokens(tokens)));
+        assertEquals(leased, store.get());
+    }
+}
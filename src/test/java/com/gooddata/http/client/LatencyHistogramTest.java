@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucket_boundsContainValue() {
+        final long[] values = {0, 1, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            final int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value + " above bucket " + bucket, value <= LatencyHistogram.upperBound(bucket));
+            assertTrue(value + " below bucket " + bucket, bucket == 0 || value > LatencyHistogram.upperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500.0, histogram.getMean(), 0.001);
+        assertWithin(500000, histogram.getValueAtPercentile(50));
+        assertWithin(990000, histogram.getValueAtPercentile(99));
+        assertEquals(1000000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void record_concurrently() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final long offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= 10000; i++) {
+                        histogram.record(i * 10 + offset);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(80000, histogram.getCount());
+        assertEquals(100007, histogram.getMax());
+        assertEquals(8 * 10 * 10000L * 10001 / 2 + 10000L * 28, histogram.getTotal());
+    }
+
+    @Test
+    public void empty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0.0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void reset() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.record(-1);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getTotal());
+    }
+
+    private static void assertWithin(final long expected, final long actual) {
+        assertTrue("Expected " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
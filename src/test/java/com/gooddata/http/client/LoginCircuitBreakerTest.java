@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LoginCircuitBreakerTest {
+
+    private LoginCircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        breaker = new LoginCircuitBreaker();
+        breaker.setBackoff(1000, 3000);
+    }
+
+    @Test
+    public void failed_opensWithJitteredBackoff() {
+        breaker.failed("login failed", 0);
+
+        final long remaining = breaker.getRemainingMillis(0);
+        assertTrue("backoff " + remaining, remaining >= 500 && remaining <= 1000);
+        assertEquals("login failed", breaker.getOpenReason(remaining - 1));
+        assertNull(breaker.getOpenReason(remaining));
+    }
+
+    @Test
+    public void failed_backoffDoublesUpToMax() {
+        breaker.failed("first", 0);
+        breaker.failed("second", 0);
+        final long second = breaker.getRemainingMillis(0);
+        assertTrue("backoff " + second, second >= 1000 && second <= 2000);
+
+        breaker.failed("third", 0);
+        breaker.failed("fourth", 0);
+        final long fourth = breaker.getRemainingMillis(0);
+        assertTrue("backoff " + fourth, fourth >= 1500 && fourth <= 3000);
+        assertEquals("fourth", breaker.getOpenReason(0));
+    }
+
+    @Test
+    public void failed_largeInitialBackoffDoesNotOverflow() {
+        final long minute = 60 * 1000;
+        breaker.setBackoff(10 * minute, 60 * minute);
+        for (int i = 0; i < 40; i++) {
+            breaker.failed("failed " + i, 0);
+            final long remaining = breaker.getRemainingMillis(0);
+            assertTrue("backoff " + remaining, remaining >= 5 * minute && remaining <= 60 * minute);
+        }
+        assertEquals(60 * minute, LoginCircuitBreaker.backoff(10 * minute, 60 * minute, 40));
+        assertEquals(Long.MAX_VALUE, LoginCircuitBreaker.backoff(Long.MAX_VALUE / 2 + 1, Long.MAX_VALUE, 2));
+        assertEquals(Long.MAX_VALUE, LoginCircuitBreaker.backoff(10 * minute, Long.MAX_VALUE, 100));
+    }
+
+    @Test
+    public void succeeded_closes() {
+        breaker.failed("first", 0);
+        breaker.failed("second", 0);
+        breaker.succeeded();
+
+        assertNull(breaker.getOpenReason(0));
+        breaker.failed("third", 0);
+        assertTrue(breaker.getRemainingMillis(0) <= 1000);
+    }
+
+    @Test
+    public void disabled_neverOpens() {
+        breaker.setBackoff(0, 0);
+        breaker.failed("login failed", 0);
+
+        assertNull(breaker.getOpenReason(0));
+        assertEquals(0, breaker.getRemainingMillis(0));
+    }
+}
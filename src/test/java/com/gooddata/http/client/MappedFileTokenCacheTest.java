@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpHost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class MappedFileTokenCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private GoodDataTokens tokens;
+    private MappedFileTokenCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "tokens");
+        tokens = new GoodDataTokens(new HttpHost("secure.gooddata.com", 443, "https"), "sst", "tt", 1234567890L);
+        cache = new MappedFileTokenCache(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+    }
+
+    @Test
+    public void load_empty() throws IOException {
+        assertNull(cache.load());
+        assertEquals(0, cache.getVersion());
+    }
+
+    @Test
+    public void storeAndLoad() throws IOException {
+        cache.store(tokens);
+
+        assertEquals(tokens, cache.load());
+        assertEquals(1, cache.getVersion());
+    }
+
+    @Test
+    public void store_visibleToReopenedCache() throws IOException {
+        cache.store(tokens);
+        cache.store(tokens.withTt("tt2", -1));
+        cache.close();
+
+        cache = new MappedFileTokenCache(file);
+        assertEquals(tokens.withTt("tt2", -1), cache.load());
+        assertEquals(2, cache.getVersion());
+    }
+
+    @Test
+    public void load_rereadOnlyWhenVersionChanged() throws IOException {
+        cache.store(tokens);
+        final GoodDataTokens loaded = cache.load();
+        assertSame(loaded, cache.load());
+
+        final MappedFileTokenCache other = new MappedFileTokenCache(file);
+        try {
+            other.store(tokens.withTt("tt2", -1));
+        } finally {
+            other.close();
+        }
+        assertEquals(tokens.withTt("tt2", -1), cache.load());
+    }
+
+    @Test
+    public void load_corruptedLength() throws IOException {
+        for (int length : new int[] {-1, MappedFileTokenCache.SIZE}) {
+            writeLength(length);
+            try {
+                cache.load();
+                fail("Corrupted length " + length + " accepted");
+            } catch (IOException e) {
+                assertEquals("Corrupted token cache", e.getMessage());
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void store_tooLarge() throws IOException {
+        final StringBuilder sst = new StringBuilder();
+        for (int i = 0; i < MappedFileTokenCache.SIZE; i++) {
+            sst.append('x');
+        }
+        cache.store(tokens.withSst(sst.toString()));
+    }
+
+    @Test
+    public void lock_reentrant() throws IOException {
+        cache.lock();
+        try {
+            cache.store(tokens);
+            assertEquals(tokens, cache.load());
+        } finally {
+            cache.unlock();
+        }
+        cache.lock();
+        cache.unlock();
+    }
+
+    @Test
+    public void lock_onlyOneThreadStores() throws Exception {
+        final AtomicInteger stores = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<GoodDataTokens>> results = new ArrayList<Future<GoodDataTokens>>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(new Callable<GoodDataTokens>() {
+                    @Override
+                    public GoodDataTokens call() throws Exception {
+                        cache.lock();
+                        try {
+                            if (cache.load() == null) {
+                                stores.incrementAndGet();
+                                cache.store(tokens);
+                            }
+                            return cache.load();
+                        } finally {
+                            cache.unlock();
+                        }
+                    }
+                }));
+            }
+            for (Future<GoodDataTokens> result : results) {
+                assertEquals(tokens, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, stores.get());
+        assertEquals(1, cache.getVersion());
+    }
+
+    private void writeLength(final int length) throws IOException {
+        final RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        try {
+            raw.seek(16);
+            raw.writeInt(length);
+        } finally {
+            raw.close();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RenewingSSTRetrievalStrategyTest {
+
+    private static final long LIFETIME = 60 * 60 * 1000;
+
+    @Mock
+    public SSTRetrievalStrategy loginStrategy;
+
+    @Mock
+    public ScheduledExecutorService scheduler;
+
+    @Mock
+    public ScheduledFuture<?> scheduledFuture;
+
+    @Mock
+    public SSTRenewalListener listener;
+
+    private RenewingSSTRetrievalStrategy sstStrategy;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        doReturn(scheduledFuture).when(scheduler).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        sstStrategy = new RenewingSSTRetrievalStrategy(loginStrategy, scheduler, LIFETIME, 10 * 60 * 1000);
+        sstStrategy.setListener(listener);
+    }
+
+    @Test
+    public void obtainSst() throws IOException {
+        when(loginStrategy.obtainSst()).thenReturn("sst1");
+
+        assertEquals("sst1", sstStrategy.obtainSst());
+
+        verify(scheduler).schedule(any(Runnable.class), eq(50L * 60 * 1000), eq(TimeUnit.MILLISECONDS));
+        verify(listener, never()).sstRenewed(any(String.class));
+    }
+
+    @Test
+    public void renewal() throws IOException {
+        when(loginStrategy.obtainSst()).thenReturn("sst1").thenReturn("sst2");
+        sstStrategy.obtainSst();
+
+        runScheduledRenewal(1);
+
+        verify(listener).sstRenewed("sst2");
+        verify(loginStrategy, times(2)).obtainSst();
+        // next renewal was scheduled and the finished one released
+        verify(scheduler, times(2)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        verify(scheduledFuture).cancel(false);
+    }
+
+    @Test
+    public void renewal_failed() throws IOException {
+        when(loginStrategy.obtainSst()).thenReturn("sst1").thenThrow(new GoodDataAuthException("Unable to login"));
+        sstStrategy.obtainSst();
+
+        runScheduledRenewal(1);
+
+        verify(listener, never()).sstRenewed(any(String.class));
+    }
+
+    @Test
+    public void renewal_retriedAfterFailure() throws IOException {
+        when(loginStrategy.obtainSst()).thenReturn("sst1").thenThrow(new GoodDataAuthException("Unable to login"))
+                .thenReturn("sst2");
+        sstStrategy.obtainSst();
+
+        runScheduledRenewal(1);
+        verify(scheduler).schedule(any(Runnable.class), eq(5000L), eq(TimeUnit.MILLISECONDS));
+        runScheduledRenewal(2);
+
+        verify(listener).sstRenewed("sst2");
+        verify(loginStrategy, times(3)).obtainSst();
+    }
+
+    @Test
+    public void renewal_notRetriedAfterSstExpires() throws IOException {
+        sstStrategy = new RenewingSSTRetrievalStrategy(loginStrategy, scheduler, 4000, 2000);
+        sstStrategy.setListener(listener);
+        when(loginStrategy.obtainSst()).thenReturn("sst1").thenThrow(new GoodDataAuthException("Unable to login"));
+        sstStrategy.obtainSst();
+
+        runScheduledRenewal(1);
+
+        verify(scheduler, times(1)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+        verify(listener, never()).sstRenewed(any(String.class));
+    }
+
+    @Test
+    public void obtainSst_renewedWhileWaiting() throws Exception {
+        final CountDownLatch renewing = new CountDownLatch(1);
+        final CountDownLatch finishRenewal = new CountDownLatch(1);
+        when(loginStrategy.obtainSst()).thenReturn("sst1").thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(final InvocationOnMock invocation) throws Throwable {
+                renewing.countDown();
+                finishRenewal.await();
+                return "sst2";
+            }
+        }).thenReturn("sst3");
+        sstStrategy.obtainSst();
+        final ArgumentCaptor<Runnable> renewal = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(renewal.capture(), anyLong(), any(TimeUnit.class));
+        final Thread renewalThread = new Thread(renewal.getValue());
+        renewalThread.start();
+        renewing.await();
+
+        final AtomicReference<String> obtained = new AtomicReference<String>();
+        final Thread foreground = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    obtained.set(sstStrategy.obtainSst());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        foreground.start();
+        while (foreground.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        finishRenewal.countDown();
+        renewalThread.join();
+        foreground.join();
+
+        assertEquals("sst2", obtained.get());
+        verify(loginStrategy, times(2)).obtainSst();
+    }
+
+    @Test
+    public void cancel() throws IOException {
+        when(loginStrategy.obtainSst()).thenReturn("sst1");
+        sstStrategy.obtainSst();
+
+        sstStrategy.cancel();
+
+        verify(scheduledFuture).cancel(false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_zeroLifetime() {
+        new RenewingSSTRetrievalStrategy(loginStrategy, scheduler, 0);
+    }
+
+    private void runScheduledRenewal(final int scheduledBefore) {
+        final ArgumentCaptor<Runnable> renewal = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(scheduledBefore)).schedule(renewal.capture(), anyLong(), any(TimeUnit.class));
+        renewal.getValue().run();
+    }
+}
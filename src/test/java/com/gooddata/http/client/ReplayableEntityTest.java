@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.entity.InputStreamEntity;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReplayableEntityTest {
+
+    private ByteChunkPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new ByteChunkPool(16, 8);
+    }
+
+    @Test
+    public void writeTo_replayFromMemory() throws IOException {
+        final byte[] content = content(100);
+        final ReplayableEntity entity = new ReplayableEntity(nonRepeatable(content), pool, 1000);
+
+        assertTrue(entity.isRepeatable());
+        assertArrayEquals(content, write(entity));
+        assertArrayEquals(content, write(entity));
+
+        entity.dispose();
+        assertEquals(8, pool.getPooled());
+    }
+
+    @Test
+    public void writeTo_replayFromFile() throws IOException {
+        final byte[] content = content(100);
+        final ReplayableEntity entity = new ReplayableEntity(nonRepeatable(content), pool, 50);
+
+        assertArrayEquals(content, write(entity));
+        assertArrayEquals(content, write(entity));
+        assertArrayEquals(content, IOUtils.toByteArray(entity.getContent()));
+        entity.dispose();
+    }
+
+    @Test
+    public void writeTo_resumeAfterFailure() throws IOException {
+        final byte[] content = content(100);
+        final ReplayableEntity entity = new ReplayableEntity(nonRepeatable(content), pool, 50);
+
+        final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+        try {
+            entity.writeTo(new FailingOutputStream(partial, 40));
+            fail("Expected failure");
+        } catch (IOException expected) {
+            assertTrue(partial.size() <= 40);
+        }
+        assertArrayEquals(content, write(entity));
+        entity.dispose();
+    }
+
+    @Test
+    public void getContent() throws IOException {
+        final byte[] content = content(100);
+        final ReplayableEntity entity = new ReplayableEntity(nonRepeatable(content), pool, 1000);
+
+        assertArrayEquals(content, IOUtils.toByteArray(entity.getContent()));
+        assertArrayEquals(content, write(entity));
+        entity.dispose();
+    }
+
+    @Test
+    public void spillableBuffer_dispose() throws IOException {
+        final SpillableBuffer buffer = new SpillableBuffer(pool, 10);
+        buffer.write(content(8), 0, 8);
+        assertFalse(buffer.isSpilled());
+        buffer.write(content(8), 0, 8);
+        assertTrue(buffer.isSpilled());
+        assertEquals(16, buffer.size());
+
+        buffer.dispose();
+        assertEquals(0, buffer.size());
+        assertFalse(buffer.isSpilled());
+    }
+
+    private static byte[] content(final int length) {
+        final byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    private static InputStreamEntity nonRepeatable(final byte[] content) {
+        return new InputStreamEntity(new ByteArrayInputStream(content), content.length);
+    }
+
+    private static byte[] write(final ReplayableEntity entity) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static class FailingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private int remaining;
+
+        FailingOutputStream(final OutputStream out, final int limit) {
+            this.out = out;
+            this.remaining = limit;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (len > remaining) {
+                throw new IOException("Connection reset");
+            }
+            remaining -= len;
+            out.write(b, off, len);
+        }
+    }
+}
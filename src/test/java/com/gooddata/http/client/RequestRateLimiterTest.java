@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpHost;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RequestRateLimiterTest {
+
+    private static final long SECOND = 1000000000L;
+
+    private final HttpHost host = new HttpHost("secure.gooddata.com", 443, "https");
+
+    @Test
+    public void reserve_burstThenWait() {
+        final RequestRateLimiter limiter = new RequestRateLimiter().addLimit(10, 2);
+
+        assertEquals(0, limiter.reserve(host, "/gdc", 0));
+        assertEquals(0, limiter.reserve(host, "/gdc", 0));
+        assertEquals(SECOND / 10, limiter.reserve(host, "/gdc", 0));
+        assertEquals(2 * SECOND / 10, limiter.reserve(host, "/gdc", 0));
+        assertEquals(0, limiter.reserve(host, "/gdc", SECOND));
+    }
+
+    @Test
+    public void reserve_rejectedOverMaxWait() {
+        final RequestRateLimiter limiter = new RequestRateLimiter().addLimit(10, 1);
+        limiter.setMaxWaitMillis(150);
+
+        assertEquals(0, limiter.reserve(host, "/gdc", 0));
+        assertEquals(SECOND / 10, limiter.reserve(host, "/gdc", 0));
+        assertEquals(-2 * SECOND / 10, limiter.reserve(host, "/gdc", 0));
+        // rejected request does not consume permit
+        assertEquals(SECOND / 10, limiter.reserve(host, "/gdc", SECOND / 10));
+    }
+
+    @Test
+    public void reserve_bucketPerHost() {
+        final RequestRateLimiter limiter = new RequestRateLimiter().addLimit(1, 1);
+        limiter.setMaxWaitMillis(0);
+
+        assertEquals(0, limiter.reserve(host, "/gdc", 0));
+        assertEquals(0, limiter.reserve(new HttpHost("na1.secure.gooddata.com", 443, "https"), "/gdc", 0));
+        assertEquals(-SECOND, limiter.reserve(host, "/gdc", 0));
+    }
+
+    @Test
+    public void reserve_firstMatchingLimit() {
+        final RequestRateLimiter limiter = new RequestRateLimiter()
+                .addLimit("/gdc/app/projects/*/execute", 1, 1)
+                .addLimit("/gdc/md/*", 1, 1)
+                .addLimit(1, 1);
+        limiter.setMaxWaitMillis(0);
+
+        assertEquals(0, limiter.reserve(host, "/gdc/app/projects/abc/execute", 0));
+        assertEquals(-SECOND, limiter.reserve(host, "https://secure.gooddata.com/gdc/app/projects/def/execute/raw?q=1", 0));
+        assertEquals(0, limiter.reserve(host, "/gdc/md/abc/obj/1", 0));
+        assertEquals(-SECOND, limiter.reserve(host, "/gdc/md/def", 0));
+        assertEquals(0, limiter.reserve(host, "/gdc/md", 0));
+        assertEquals(-SECOND, limiter.reserve(host, "/gdc/app/projects/abc", 0));
+    }
+
+    @Test
+    public void reserve_noMatchingLimit() {
+        final RequestRateLimiter limiter = new RequestRateLimiter().addLimit("/gdc/md/*", 1, 1);
+        limiter.setMaxWaitMillis(0);
+
+        assertEquals(0, limiter.reserve(host, "/gdc/projects", 0));
+        assertEquals(0, limiter.reserve(host, "/gdc/projects", 0));
+    }
+
+    @Test
+    public void path() {
+        assertEquals("/gdc/md", RequestRateLimiter.path("/gdc/md?x=/y"));
+        assertEquals("/gdc/md", RequestRateLimiter.path("https://secure.gooddata.com/gdc/md#top"));
+        assertEquals("/", RequestRateLimiter.path("https://secure.gooddata.com"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addLimit_relativePattern() {
+        new RequestRateLimiter().addLimit("gdc/md", 1, 1);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private RetryPolicy policy;
+
+    @Before
+    public void setUp() {
+        policy = new RetryPolicy();
+        policy.setDelay(100, 1000);
+    }
+
+    @Test
+    public void isRetryable_idempotentMethods() {
+        assertTrue(policy.isRetryable(new HttpGet("/gdc")));
+        assertTrue(policy.isRetryable(new HttpPut("/gdc")));
+        assertFalse(policy.isRetryable(new HttpPost("/gdc")));
+    }
+
+    @Test
+    public void isRetryable_statuses() {
+        assertTrue(policy.isRetryable(response(502)));
+        assertTrue(policy.isRetryable(response(503)));
+        assertTrue(policy.isRetryable(response(504)));
+        assertFalse(policy.isRetryable(response(500)));
+        assertFalse(policy.isRetryable(response(429)));
+    }
+
+    @Test
+    public void isRetryable_exceptions() {
+        assertTrue(policy.isRetryable(new SocketException("Connection reset")));
+        assertTrue(policy.isRetryable(new SocketTimeoutException()));
+        assertTrue(policy.isRetryable(new ConnectTimeoutException()));
+        assertFalse(policy.isRetryable(new InterruptedIOException()));
+        assertFalse(policy.isRetryable(new UnknownHostException()));
+        assertFalse(policy.isRetryable(new SSLException("handshake")));
+        assertTrue(policy.isRetryable(new IOException()));
+    }
+
+    @Test
+    public void retryDelay_decorrelatedJitter() {
+        policy.setRetryBudget(0, 1000);
+        long delay = 100;
+        for (int i = 0; i < 100; i++) {
+            final long previous = delay;
+            delay = policy.retryDelay(1, previous, -1, Long.MAX_VALUE);
+            assertTrue("delay " + delay, delay >= 100 && delay <= Math.min(previous * 3, 1000));
+        }
+    }
+
+    @Test
+    public void retryDelay_retryAfterHonored() {
+        assertEquals(5000, policy.retryDelay(1, 100, 5000, 10000));
+    }
+
+    @Test
+    public void retryDelay_maxAttempts() {
+        policy.setMaxAttempts(2);
+
+        assertTrue(policy.retryDelay(1, 100, -1, 10000) >= 0);
+        assertEquals(-1, policy.retryDelay(2, 100, -1, 10000));
+    }
+
+    @Test
+    public void retryDelay_deadline() {
+        assertEquals(-1, policy.retryDelay(1, 100, 5000, 4999));
+        assertEquals(-1, policy.retryDelay(1, 100, -1, 99));
+    }
+
+    @Test
+    public void retryDelay_budget() {
+        policy.setRetryBudget(0.5, 2);
+
+        assertTrue(policy.retryDelay(1, 100, 0, 10000) >= 0);
+        assertTrue(policy.retryDelay(1, 100, 0, 10000) >= 0);
+        assertEquals(-1, policy.retryDelay(1, 100, 0, 10000));
+
+        policy.requested();
+        assertEquals(-1, policy.retryDelay(1, 100, 0, 10000));
+        policy.requested();
+        assertEquals(0, policy.retryDelay(1, 100, 0, 10000));
+    }
+
+    @Test
+    public void retryAfterMillis() {
+        assertEquals(-1, RetryPolicy.retryAfterMillis(response(503), 0));
+        assertEquals(120000, RetryPolicy.retryAfterMillis(response(503, "120"), 0));
+        assertEquals(-1, RetryPolicy.retryAfterMillis(response(503, "soon"), 0));
+        final long now = 1000000000000L;
+        assertEquals(30000, RetryPolicy.retryAfterMillis(response(503, DateUtils.formatDate(new Date(now + 30000))), now));
+        assertEquals(0, RetryPolicy.retryAfterMillis(response(503, DateUtils.formatDate(new Date(now - 30000))), now));
+    }
+
+    private static HttpResponse response(final int status) {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+    }
+
+    private static HttpResponse response(final int status, final String retryAfter) {
+        final HttpResponse response = response(status);
+        response.addHeader("Retry-After", retryAfter);
+        return response;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local stand-in of GoodData API for tests. Issues SST on login and TT on token request, rejects requests
+ * to <code>/gdc/projects</code> with GoodData challenges after {@link #expireTt()} or {@link #expireSst()}.
+ * The server runs on plain HTTP where the secure SST cookie is not sent, so SST validity is tracked
+ * on the server side: TT is issued only when somebody logged in since the last SST expiration.
+ */
+class StandInServer {
+
+    static final String PROJECTS_URL = "/gdc/projects";
+    static final String LOGIN = "user@email.com";
+    static final String PASSWORD = "top secret";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] BODY = "{\"about\":{\"summary\":\"Project Resources\",\"category\":\"Projects\",\"links\":[]}}".getBytes(UTF8);
+    private static final byte[] EMPTY = new byte[0];
+
+    private final AtomicInteger sstGeneration = new AtomicInteger();
+    private final AtomicInteger loggedInGeneration = new AtomicInteger(-1);
+    private final AtomicInteger ttGeneration = new AtomicInteger();
+    private final AtomicInteger logins = new AtomicInteger();
+    private final AtomicInteger ttRefreshes = new AtomicInteger();
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    StandInServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 128);
+        server.setExecutor(executor);
+        server.createContext("/gdc/account/login", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final String body = read(exchange);
+                if (!body.contains(LOGIN) || !body.contains(PASSWORD)) {
+                    challenge(exchange, null);
+                    return;
+                }
+                logins.incrementAndGet();
+                loggedInGeneration.set(sstGeneration.get());
+                exchange.getResponseHeaders().add("Set-Cookie", "GDCAuthSST=sst" + sstGeneration.get() + "; path=/gdc/account; HttpOnly");
+                respond(exchange, 200, BODY);
+            }
+        });
+        server.createContext("/gdc/account/token", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                read(exchange);
+                if (loggedInGeneration.get() != sstGeneration.get()) {
+                    challenge(exchange, "GDCAuthSST");
+                    return;
+                }
+                ttRefreshes.incrementAndGet();
+                exchange.getResponseHeaders().add("Set-Cookie", "GDCAuthTT=tt" + ttGeneration.get() + "; path=/gdc; HttpOnly");
+                respond(exchange, 200, EMPTY);
+            }
+        });
+        server.createContext(PROJECTS_URL, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                read(exchange);
+                final String cookies = exchange.getRequestHeaders().getFirst("Cookie");
+                if (cookies == null || !cookies.contains("GDCAuthTT=tt" + ttGeneration.get())) {
+                    challenge(exchange, "GDCAuthTT");
+                    return;
+                }
+                respond(exchange, 200, BODY);
+            }
+        });
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    HttpHost getHost() {
+        return new HttpHost("localhost", server.getAddress().getPort(), "http");
+    }
+
+    /**
+     * Invalidate issued TT, following requests are rejected with TT challenge.
+     */
+    void expireTt() {
+        ttGeneration.incrementAndGet();
+    }
+
+    /**
+     * Invalidate issued SST and TT, following TT refresh is rejected with SST challenge.
+     */
+    void expireSst() {
+        sstGeneration.incrementAndGet();
+        ttGeneration.incrementAndGet();
+    }
+
+    int getLogins() {
+        return logins.get();
+    }
+
+    int getTtRefreshes() {
+        return ttRefreshes.get();
+    }
+
+    private static void challenge(final HttpExchange exchange, final String cookie) throws IOException {
+        exchange.getResponseHeaders().add("WWW-Authenticate",
+                "GoodData realm=\"GoodData API\"" + (cookie != null ? " cookie=" + cookie : ""));
+        respond(exchange, 401, EMPTY);
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        final OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String read(final HttpExchange exchange) throws IOException {
+        final InputStream in = exchange.getRequestBody();
+        try {
+            final StringBuilder body = new StringBuilder();
+            final byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                body.append(new String(buffer, 0, count, UTF8));
+            }
+            return body.toString();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2007-2013, GoodData(R) Corporation. All rights reserved.
+ * This program is made available under the terms of the BSD License.
+ */
+package com.gooddata.http.client;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Several clients, each standing for a node with its own SST strategy and cookies, share SST through
+ * a token store against the {@link StandInServer}.
+ */
+public class TokenStoreSharingTest {
+
+    private static final int NODES = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StandInServer server;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer();
+        server.start();
+        executor = Executors.newFixedThreadPool(NODES);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        server.stop();
+    }
+
+    @Test
+    public void inMemoryStore_singleLoginPerExpiration() throws Exception {
+        final InMemoryTokenStore store = new InMemoryTokenStore();
+        final List<GoodDataHttpClient> nodes = new ArrayList<GoodDataHttpClient>();
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(createNode(store));
+        }
+        assertSingleLoginPerExpiration(nodes);
+    }
+
+    @Test
+    public void fileStore_singleLoginPerExpiration() throws Exception {
+        final File file = new File(folder.getRoot(), "tokens");
+        final List<GoodDataHttpClient> nodes = new ArrayList<GoodDataHttpClient>();
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(createNode(new FileTokenStore(file)));
+        }
+        assertSingleLoginPerExpiration(nodes);
+    }
+
+    private void assertSingleLoginPerExpiration(final List<GoodDataHttpClient> nodes) throws Exception {
+        executeAll(nodes);
+        assertEquals(1, server.getLogins());
+
+        server.expireSst();
+        executeAll(nodes);
+        assertEquals(2, server.getLogins());
+    }
+
+    private GoodDataHttpClient createNode(final TokenStore store) {
+        final GoodDataHttpClient client = new GoodDataHttpClient(HttpClientBuilder.create().build(),
+                new LoginSSTRetrievalStrategy(HttpClientBuilder.create().build(), server.getHost(),
+                        StandInServer.LOGIN, StandInServer.PASSWORD));
+        client.setTokenStore(store);
+        return client;
+    }
+
+    private void executeAll(final List<GoodDataHttpClient> nodes) throws Exception {
+        final List<Future<Integer>> statuses = new ArrayList<Future<Integer>>();
+        for (final GoodDataHttpClient node : nodes) {
+            statuses.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    final HttpResponse response = node.execute(server.getHost(), new HttpGet(StandInServer.PROJECTS_URL));
+                    EntityUtils.consume(response.getEntity());
+                    return response.getStatusLine().getStatusCode();
+                }
+            }));
+        }
+        for (Future<Integer> status : statuses) {
+            assertEquals(Integer.valueOf(HttpStatus.SC_OK), status.get());
+        }
+    }
+}